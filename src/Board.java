@@ -1,10 +1,17 @@
 /* Copyright 2019, Serena Li, All rights reserved. */
 import java.awt.Color;
 import java.awt.Point;
+import java.util.Arrays;
 
 public class Board {
-	/* 2d array of Colors (x, y) that stores which spots are filled and their color */
-	private Color[][] grid;
+	/* 2d array of Colors, rows[y][x], that stores which spots are filled and their color.
+	 * Rows can be shared with the backup, copies and snapshots of this board, so a row is
+	 * only written in place if ownedRows says it belongs to this board alone */
+	private Color[][] rows;
+	/* ownedRows[y] is true if rows[y] is not shared and can be written without copying it */
+	private boolean[] ownedRows;
+	/* number of columns */
+	private final int width;
 	/* An array of integers that stores how many filled blocks are in each row starting from the bottom row */
 	private int[] widths;
 	/* An array of integers that stores the height that a column has been filled up to, 
@@ -17,8 +24,23 @@ public class Board {
 	private int[] bkupWidths;
 	/* backup for the heights variable of the board */
 	private int[] bkupHeights; 
-	/* backup for the grid */
-	private Color[][] bkupGrid;
+	/* backup for the row references of the grid */
+	private Color[][] bkupRows;
+	/* the last snapshot taken, or null if the board has changed since */
+	private BoardSnapshot snapshot;
+	// change tracking, read by BoardDeltaEncoder
+	/* lowest and highest rows changed by place()/clearRows() since the last commit() or undo() */
+	private int pendingLow;
+	private int pendingHigh;
+	/* rows removed by clearRows() since the last commit() or undo(), as indexes before removal */
+	private int[] pendingCleared;
+	private int pendingClearedCount;
+	/* lowest and highest rows of the committed state changed since the last resetChanges() */
+	private int changedLow;
+	private int changedHigh;
+	/* rows removed by committed clearRows() calls since the last resetChanges() */
+	private int[] clearedRows;
+	private int clearedCount;
 	
 	public final static int DEFAULT_WIDTH = 10;
 	public final static int DEFAULT_HEIGHT = 20;
@@ -35,17 +57,90 @@ public class Board {
 		this(DEFAULT_WIDTH, DEFAULT_HEIGHT);
 	}
 	public Board(int width, int height) {
-		this.grid = new Color[width][height];
+		this.width = width;
+		this.rows = new Color[height][width];
+		// the rows start out shared with the backup
+		this.ownedRows = new boolean[height];
 		this.widths = new int[height];
 		this.heights = new int[width];
+		this.bkupRows = rows.clone();
+		this.bkupWidths = new int[height];
+		this.bkupHeights = new int[width];
 		this.committed = true;
+		this.pendingCleared = new int[height];
+		this.clearedRows = new int[height];
+		this.pendingLow = this.changedLow = Integer.MAX_VALUE;
+		this.pendingHigh = this.changedHigh = -1;
+	}
+	
+	/**
+	 * Creates a committed board from existing rows, widths and heights. The rows
+	 * are shared with whoever else holds them and are copied before this board
+	 * writes to them, so creating the board costs O(height + width) rather than a
+	 * copy of every block.
+	 */
+	Board(Color[][] rows, int[] widths, int[] heights) {
+		int height = rows.length;
+		this.width = heights.length;
+		this.rows = rows.clone();
+		this.ownedRows = new boolean[height];
+		this.widths = widths.clone();
+		this.heights = heights.clone();
+		this.bkupRows = rows.clone();
+		this.bkupWidths = widths.clone();
+		this.bkupHeights = heights.clone();
+		this.committed = true;
+		this.pendingCleared = new int[height];
+		this.clearedRows = new int[height];
+		this.pendingLow = this.changedLow = Integer.MAX_VALUE;
+		this.pendingHigh = this.changedHigh = -1;
+	}
+	
+	/**
+	 * @return a committed copy of this board's current state. The two boards share
+	 * rows until either of them writes to one.
+	 */
+	public Board copy() {
+		disownRows();
+		return new Board(rows, widths, heights);
+	}
+	
+	/**
+	 * Returns an immutable snapshot of the board's current state. Taking a snapshot
+	 * copies only the row references, widths and heights; if nothing has changed
+	 * since the last snapshot, the same snapshot is returned again.
+	 */
+	public BoardSnapshot snapshot() {
+		if (snapshot == null) {
+			disownRows();
+			snapshot = new BoardSnapshot(rows.clone(), widths.clone(), heights.clone());
+		}
+		return snapshot;
 	}
 	
 	/**
 	 * returns the block at (x, y)
 	 */
 	public Color at(int x, int y) {
-		return this.grid[x][y];
+		return this.rows[y][x];
+	}
+	
+	/**
+	 * Marks every row as shared, so the next write to a row copies it first
+	 */
+	private void disownRows() {
+		Arrays.fill(ownedRows, false);
+	}
+	
+	/**
+	 * @return row y, copied first if it is shared
+	 */
+	private Color[] writableRow(int y) {
+		if (!ownedRows[y]) {
+			rows[y] = rows[y].clone();
+			ownedRows[y] = true;
+		}
+		return rows[y];
 	}
 	
 	
@@ -59,31 +154,30 @@ public class Board {
 	 * blocks 
 	 */
 	public int place(Piece piece, int x, int y) {
-		// set up backup
+		// set up backup, the rows themselves are shared with the backup until written
 		this.committed = false;
-		bkupWidths = new int[widths.length];
-		bkupHeights = new int[heights.length];
-		bkupGrid = new Color[grid.length][grid[0].length];
 		System.arraycopy(widths, 0, bkupWidths, 0, widths.length);
 		System.arraycopy(heights, 0, bkupHeights, 0, heights.length);
-		for (int i = 0; i < grid.length; i++) {
-			System.arraycopy(grid[i], 0, bkupGrid[i], 0, grid[0].length);
-		}
+		System.arraycopy(rows, 0, bkupRows, 0, rows.length);
+		disownRows();
+		snapshot = null;
 		
 		boolean rowFilled = false;
 		/* Check each point of piece's body to see if it is in a valid spot */
 		for (Point pt : piece.getBody()) {
 			int ptX = pt.x + x;
 			int ptY = pt.y + y;
-			if (ptX < 0 || ptX >= grid.length || ptY < 0 || ptY >= grid[0].length) {
+			if (ptX < 0 || ptX >= width || ptY < 0 || ptY >= rows.length) {
 				return PLACE_OUT_BOUNDS;
-			} else if (grid[ptX][ptY] != null) {
+			} else if (rows[ptY][ptX] != null) {
 				return PLACE_BAD;
 			} else {
-				grid[ptX][ptY] = piece.getColor();
+				writableRow(ptY)[ptX] = piece.getColor();
+				if (ptY < pendingLow) { pendingLow = ptY; }
+				if (ptY > pendingHigh) { pendingHigh = ptY; }
 				widths[ptY]++;
 				if (heights[ptX] < ptY + 1) { heights[ptX] = ptY + 1; }
-				if (widths[ptY] == grid.length) { rowFilled = true; }
+				if (widths[ptY] == width) { rowFilled = true; }
 			}
 		}
 		
@@ -122,32 +216,44 @@ public class Board {
 		
 		int curTopRow = 0;
 		int totalCleared = 0;
-		for (int i = 0; i < widths.length; i++) {
-			if (widths[i] == grid.length) {
+		int oldMaxHeight = getMaxHeight();
+		int i = 0;
+		for (; i < widths.length; i++) {
+			if (widths[i] == width) {
 				totalCleared++;
-				// clear this row
-				for (int c = 0; c < grid.length; c++) {
-					grid[c][curTopRow] = null;
+				if (pendingClearedCount == pendingCleared.length) {
+					pendingCleared = Arrays.copyOf(pendingCleared, pendingClearedCount * 2);
 				}
+				pendingCleared[pendingClearedCount++] = i;
+				if (i < pendingLow) { pendingLow = i; }
+				if (oldMaxHeight - 1 > pendingHigh) { pendingHigh = oldMaxHeight - 1; }
+				// drop this row
 				widths[i] = 0;
 			} else if (widths[i] == 0) {
 				break;
 			} else {
-				// transfer this row to its new home and clear the src row (i)
-				for (int c = 0; c < grid.length; c++) {
-					Color temp = grid[c][i];
-					grid[c][i] = null;
-					grid[c][curTopRow] = temp;
-				}
-				int temp = widths[i]; // transfer the width
-				widths[i] = 0;
-				widths[curTopRow] = temp;
+				// transfer this row to its new home, only the reference moves
+				rows[curTopRow] = rows[i];
+				ownedRows[curTopRow] = ownedRows[i];
+				widths[curTopRow] = widths[i];
 				curTopRow++;
 			}
 		}
-		// move the heights array down by totalCleared
+		if (totalCleared == 0) {
+			return false;
+		}
+		snapshot = null;
+		// the rows left at the top are now empty
+		for (int r = curTopRow; r < i; r++) {
+			rows[r] = new Color[width];
+			ownedRows[r] = true;
+			widths[r] = 0;
+		}
+		// recompute the heights, moving each one down past the cleared rows and any holes now on top
 		for (int k = 0; k < heights.length; k++) {
-			heights[k] = Math.max(heights[k] - totalCleared, 0); 
+			int h = heights[k];
+			while (h > 0 && rows[h - 1][k] == null) { h--; }
+			heights[k] = h;
 		}
 		return totalCleared > 0;
 	}
@@ -184,34 +290,34 @@ public class Board {
 	/**
 	 * @param x the x value of the point to check
 	 * @param y the y value of the point to check
-	 * @return the color at grid[x][y], or null if there is no block there
+	 * @return the color at (x, y), or null if there is no block there
 	 */
 	public Color getGrid(int x, int y) {
-		return grid[x][y];
+		return rows[y][x];
 	}
 	
 	public int getWidth() {
-		return grid.length;
+		return width;
 	}
 	public int getHeight() {
-		return grid[0].length;
+		return rows.length;
 	}
 	
 	@Override
 	public String toString() {
-		String res = "{";
-		for (int r = this.grid[0].length - 1; r >= 0; r--) {
-			res += "{";
-			for (int c = 0; c < grid.length; c++) {
-				if (grid[c][r] == null) {
-					res += "-, ";
+		StringBuilder res = new StringBuilder("{");
+		for (int r = this.rows.length - 1; r >= 0; r--) {
+			res.append('{');
+			for (int c = 0; c < width; c++) {
+				if (rows[r][c] == null) {
+					res.append("-, ");
 				} else {
-					res += "X, "; 
+					res.append("X, "); 
 				}//grid[c][r] + ", ";
 			}
-			res += "}\n";
+			res.append("}\n");
 		}
-		return res;
+		return res.toString();
 	}
 	
 	// UNDO FUNCTIONALITY
@@ -223,11 +329,16 @@ public class Board {
 	 */
 	public void undo() {
 		if (!committed) {
-			// reset the grid
-			this.grid = this.bkupGrid;
-			this.heights = this.bkupHeights;
-			this.widths = this.bkupWidths;
+			// reset the grid, the backed up rows are shared again
+			System.arraycopy(bkupRows, 0, rows, 0, rows.length);
+			System.arraycopy(bkupHeights, 0, heights, 0, heights.length);
+			System.arraycopy(bkupWidths, 0, widths, 0, widths.length);
+			disownRows();
+			snapshot = null;
 		}
+		pendingLow = Integer.MAX_VALUE;
+		pendingHigh = -1;
+		pendingClearedCount = 0;
 	}
 	
 	/**
@@ -235,14 +346,104 @@ public class Board {
 	 * original state.
 	 */
 	public void commit() {
-		this.bkupGrid = grid;
-		this.bkupHeights = heights;
-		this.bkupWidths = widths;
+		// the committed state becomes the backup, in case clearRows() is called before the next place()
+		System.arraycopy(widths, 0, bkupWidths, 0, widths.length);
+		System.arraycopy(heights, 0, bkupHeights, 0, heights.length);
+		System.arraycopy(rows, 0, bkupRows, 0, rows.length);
+		disownRows();
 		this.committed = true;
+		if (pendingLow < changedLow) { changedLow = pendingLow; }
+		if (pendingHigh > changedHigh) { changedHigh = pendingHigh; }
+		for (int i = 0; i < pendingClearedCount; i++) {
+			if (clearedCount == clearedRows.length) {
+				clearedRows = Arrays.copyOf(clearedRows, clearedCount * 2);
+			}
+			clearedRows[clearedCount++] = pendingCleared[i];
+		}
+		pendingLow = Integer.MAX_VALUE;
+		pendingHigh = -1;
+		pendingClearedCount = 0;
 	}
 	
 	public boolean isCommited() {
 		return committed;
 	}
+	
+	// CHANGE TRACKING
+	/**
+	 * @return the block at (x, y) as of the last commit, ignoring any placement
+	 * that could still be undone
+	 */
+	Color committedAt(int x, int y) {
+		return committed ? rows[y][x] : bkupRows[y][x];
+	}
+	
+	/**
+	 * @return the lowest row whose committed contents changed since the last
+	 * resetChanges(), or Integer.MAX_VALUE if none did
+	 */
+	int getChangedLow() {
+		return changedLow;
+	}
+	
+	/**
+	 * @return the highest row whose committed contents changed since the last
+	 * resetChanges(), or -1 if none did
+	 */
+	int getChangedHigh() {
+		return changedHigh;
+	}
+	
+	/**
+	 * @return the number of rows cleared by committed clearRows() calls since the
+	 * last resetChanges()
+	 */
+	int getClearedCount() {
+		return clearedCount;
+	}
+	
+	/**
+	 * @return the index the i-th cleared row had when it was cleared
+	 */
+	int getClearedRow(int i) {
+		return clearedRows[i];
+	}
+	
+	/**
+	 * Forgets the committed changes reported by getChangedLow(), getChangedHigh()
+	 * and getClearedRow()
+	 */
+	void resetChanges() {
+		changedLow = Integer.MAX_VALUE;
+		changedHigh = -1;
+		clearedCount = 0;
+	}
+	
+	/**
+	 * Sets a single block of a committed board, keeping the widths and heights
+	 * arrays up to date. Used to rebuild a board from a stream of changes.
+	 */
+	void set(int x, int y, Color color) {
+		if (!committed) {
+			throw new IllegalStateException("set() requires a committed board");
+		}
+		snapshot = null;
+		if ((rows[y][x] == null) == (color == null)) {
+			writableRow(y)[x] = color;
+			return;
+		}
+		writableRow(y)[x] = color;
+		if (color != null) {
+			widths[y]++;
+			if (heights[x] < y + 1) { heights[x] = y + 1; }
+		} else {
+			widths[y]--;
+			if (heights[x] == y + 1) {
+				int h = y;
+				while (h > 0 && rows[h - 1][x] == null) { h--; }
+				heights[x] = h;
+			}
+		}
+	}
 
 }
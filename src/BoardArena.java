@@ -0,0 +1,396 @@
+/* Copyright 2019, Serena Li, All rights reserved. */
+import java.awt.Color;
+import java.awt.Point;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+/**
+ * Stores many boards side by side in primitive arrays, for simulating whole
+ * populations of games in lockstep. Board b's rows are the ints
+ * rows[b * height .. (b + 1) * height), one bit per column, and its column
+ * heights are heights[b * width .. (b + 1) * width). The number of blocks in
+ * a row is the bit count of its mask, so row widths are not stored separately.
+ * Colors are not stored either.
+ *
+ * The batch operations mirror Board's place(), dropHeight(), clearRows(),
+ * undo() and commit() and apply them to every board in a range [from, to),
+ * walking the arrays in order. Ranges that don't overlap can be stepped on
+ * different threads at the same time, see partition() and forEachPartition().
+ *
+ * Pieces are referred to by a rotation id, given by rotationId(), so the
+ * arena can keep every rotation's shape in flat arrays too.
+ */
+public class BoardArena {
+	/**
+	 * A task run on one range of boards by forEachPartition()
+	 */
+	public interface RangeTask {
+		void run(int from, int to);
+	}
+
+	private final int count;
+	private final int width;
+	private final int height;
+	/* a row mask with all width bits set */
+	private final int fullRow;
+	private final int[] rows;
+	private final int[] heights;
+	private final int[] bkupRows;
+	private final int[] bkupHeights;
+	private final boolean[] committed;
+
+	// shapes of every rotation of every piece, indexed by rotation id
+	private final IdentityHashMap<Piece, Integer> rotationIds = new IdentityHashMap<Piece, Integer>();
+	private final int[] pieceWidths;
+	private final int[] pieceHeights;
+	/* the rows of rotation r, with x = 0, are pieceRows[pieceOffsets[r] .. + pieceHeights[r]) */
+	private final int[] pieceRows;
+	/* the skirt of rotation r is pieceSkirts[pieceOffsets[r] .. + pieceWidths[r]) */
+	private final int[] pieceSkirts;
+	/* the height of each column of rotation r, laid out like the skirt */
+	private final int[] pieceTops;
+	private final int[] pieceOffsets;
+
+	/**
+	 * Creates count empty, committed boards
+	 * @param pieces the pieces that will be placed, every rotation gets a rotation id
+	 * @param width the width of each board, at most 32
+	 */
+	public BoardArena(int count, int width, int height, PieceSet pieces) {
+		if (width < 1 || width > 32) {
+			throw new IllegalArgumentException("board width must be between 1 and 32: " + width);
+		}
+		this.count = count;
+		this.width = width;
+		this.height = height;
+		this.fullRow = width == 32 ? -1 : (1 << width) - 1;
+		this.rows = new int[count * height];
+		this.heights = new int[count * width];
+		this.bkupRows = new int[count * height];
+		this.bkupHeights = new int[count * width];
+		this.committed = new boolean[count];
+		Arrays.fill(committed, true);
+
+		List<Piece> all = new ArrayList<Piece>();
+		for (int i = 0; i < pieces.size(); i++) {
+			Piece p = pieces.get(i);
+			do {
+				rotationIds.put(p, all.size());
+				all.add(p);
+				p = p.nextRotation();
+			} while (p != pieces.get(i));
+		}
+		int n = all.size();
+		this.pieceWidths = new int[n];
+		this.pieceHeights = new int[n];
+		this.pieceOffsets = new int[n];
+		int size = 0;
+		for (int r = 0; r < n; r++) {
+			pieceWidths[r] = all.get(r).getWidth();
+			pieceHeights[r] = all.get(r).getHeight();
+			pieceOffsets[r] = size;
+			size += Math.max(pieceWidths[r], pieceHeights[r]);
+		}
+		this.pieceRows = new int[size];
+		this.pieceSkirts = new int[size];
+		this.pieceTops = new int[size];
+		for (int r = 0; r < n; r++) {
+			Piece p = all.get(r);
+			int off = pieceOffsets[r];
+			int[] skirt = p.getSkirt();
+			for (int c = 0; c < skirt.length; c++) {
+				pieceSkirts[off + c] = skirt[c];
+			}
+			for (Point pt : p.getBody()) {
+				pieceRows[off + pt.y] |= 1 << pt.x;
+				pieceTops[off + pt.x] = Math.max(pieceTops[off + pt.x], pt.y + 1);
+			}
+		}
+	}
+
+	/**
+	 * @param piece any rotation of a piece from the set the arena was created with
+	 * @return the id the batch operations use for that rotation, or -1 if it is not in the set
+	 */
+	public int rotationId(Piece piece) {
+		Integer id = rotationIds.get(piece);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * @return the number of boards
+	 */
+	public int size() {
+		return count;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	// BATCH OPERATIONS
+	/**
+	 * For every board b in [from, to), computes where rotation rot[b] comes to rest
+	 * if dropped with its lower left corner in column x[b], like Board.dropHeight().
+	 * @param out receives the y of each board's piece
+	 * @throws IllegalArgumentException if a rotation id is not valid or a piece
+	 * would not fit between the sides of the board
+	 */
+	public void dropHeight(int[] rot, int[] x, int[] out, int from, int to) {
+		for (int b = from; b < to; b++) {
+			int r = checkRotation(rot, b);
+			if (x[b] < 0 || x[b] + pieceWidths[r] > width) {
+				throw new IllegalArgumentException("piece on board " + b + " is outside the board at x=" + x[b]);
+			}
+			int off = pieceOffsets[r];
+			int hBase = b * width + x[b];
+			int originY = -1;
+			for (int c = 0; c < pieceWidths[r]; c++) {
+				int y = heights[hBase + c] - pieceSkirts[off + c];
+				if (y > originY) { originY = y; }
+			}
+			out[b] = originY;
+		}
+	}
+
+	/**
+	 * For every board b in [from, to), places rotation rot[b] with its lower left
+	 * corner at (x[b], y[b]), like Board.place(). Each board backs itself up first
+	 * so undo() can reverse the placement. Unlike Board.place(), a placement that
+	 * fails leaves the board unchanged.
+	 * @param result receives Board.PLACE_OK, PLACE_ROW_FILLED, PLACE_OUT_BOUNDS or
+	 * PLACE_BAD for each board
+	 * @throws IllegalArgumentException if a rotation id is not valid
+	 */
+	public void place(int[] rot, int[] x, int[] y, int[] result, int from, int to) {
+		for (int b = from; b < to; b++) {
+			int r = checkRotation(rot, b);
+			backup(b);
+			committed[b] = false;
+			int px = x[b];
+			int py = y[b];
+			int pw = pieceWidths[r];
+			int ph = pieceHeights[r];
+			if (px < 0 || py < 0 || px + pw > width || py + ph > height) {
+				result[b] = Board.PLACE_OUT_BOUNDS;
+				continue;
+			}
+			int off = pieceOffsets[r];
+			int rowBase = b * height + py;
+			boolean collides = false;
+			for (int dy = 0; dy < ph; dy++) {
+				if ((rows[rowBase + dy] & (pieceRows[off + dy] << px)) != 0) {
+					collides = true;
+					break;
+				}
+			}
+			if (collides) {
+				result[b] = Board.PLACE_BAD;
+				continue;
+			}
+			boolean rowFilled = false;
+			for (int dy = 0; dy < ph; dy++) {
+				int row = rows[rowBase + dy] | (pieceRows[off + dy] << px);
+				rows[rowBase + dy] = row;
+				if (row == fullRow) { rowFilled = true; }
+			}
+			int hBase = b * width + px;
+			for (int c = 0; c < pw; c++) {
+				int top = py + pieceTops[off + c];
+				if (heights[hBase + c] < top) { heights[hBase + c] = top; }
+			}
+			result[b] = rowFilled ? Board.PLACE_ROW_FILLED : Board.PLACE_OK;
+		}
+	}
+
+	/**
+	 * For every board b in [from, to), removes the full rows and moves the rows
+	 * above them down, like Board.clearRows(). A committed board backs itself up
+	 * first so undo() can reverse the clear.
+	 * @param cleared receives the number of rows cleared on each board, may be null
+	 */
+	public void clearRows(int[] cleared, int from, int to) {
+		for (int b = from; b < to; b++) {
+			if (committed[b]) {
+				backup(b);
+				committed[b] = false;
+			}
+			int base = b * height;
+			int dst = 0;
+			int src = 0;
+			for (; src < height; src++) {
+				int row = rows[base + src];
+				if (row == 0) {
+					break;
+				} else if (row != fullRow) {
+					rows[base + dst] = row;
+					dst++;
+				}
+			}
+			int total = src - dst;
+			if (cleared != null) {
+				cleared[b] = total;
+			}
+			if (total == 0) {
+				continue;
+			}
+			for (int k = dst; k < src; k++) {
+				rows[base + k] = 0;
+			}
+			int hBase = b * width;
+			for (int c = 0; c < width; c++) {
+				int h = heights[hBase + c];
+				while (h > 0 && (rows[base + h - 1] & (1 << c)) == 0) { h--; }
+				heights[hBase + c] = h;
+			}
+		}
+	}
+
+	/**
+	 * Undoes the last place() or place()/clearRows() on every board in [from, to)
+	 * that has not been committed since, like Board.undo()
+	 */
+	public void undo(int from, int to) {
+		for (int b = from; b < to; b++) {
+			if (!committed[b]) {
+				System.arraycopy(bkupRows, b * height, rows, b * height, height);
+				System.arraycopy(bkupHeights, b * width, heights, b * width, width);
+			}
+		}
+	}
+
+	/**
+	 * Commits every board in [from, to), like Board.commit()
+	 */
+	public void commit(int from, int to) {
+		for (int b = from; b < to; b++) {
+			committed[b] = true;
+		}
+	}
+
+	// PARTITIONING
+	/**
+	 * Splits the boards into parts ranges of nearly equal size
+	 * @return parts + 1 bounds; range i is [bounds[i], bounds[i + 1])
+	 */
+	public int[] partition(int parts) {
+		int[] bounds = new int[parts + 1];
+		for (int i = 0; i <= parts; i++) {
+			bounds[i] = (int) ((long) count * i / parts);
+		}
+		return bounds;
+	}
+
+	/**
+	 * Runs task on each of parts ranges of boards on pool, and waits for all of
+	 * them to finish. Each range is only touched by one thread.
+	 */
+	public void forEachPartition(ExecutorService pool, int parts, final RangeTask task) {
+		final int[] bounds = partition(parts);
+		List<Future<?>> futures = new ArrayList<Future<?>>(parts);
+		for (int i = 0; i < parts; i++) {
+			final int from = bounds[i];
+			final int to = bounds[i + 1];
+			futures.add(pool.submit(new Runnable() {
+				@Override
+				public void run() {
+					task.run(from, to);
+				}
+			}));
+		}
+		for (Future<?> f : futures) {
+			try {
+				f.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException(e);
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+		}
+	}
+
+	// SINGLE BOARD ACCESS
+	/**
+	 * @return true if block (x, y) of board b is filled
+	 */
+	public boolean isFilled(int b, int x, int y) {
+		return (rows[b * height + y] & (1 << x)) != 0;
+	}
+
+	public int getColumnHeight(int b, int x) {
+		return heights[b * width + x];
+	}
+
+	public int getRowWidth(int b, int y) {
+		return Integer.bitCount(rows[b * height + y]);
+	}
+
+	public int getMaxHeight(int b) {
+		int curMax = 0;
+		for (int i = b * width; i < (b + 1) * width; i++) {
+			if (heights[i] > curMax) { curMax = heights[i]; }
+		}
+		return curMax;
+	}
+
+	public boolean isCommited(int b) {
+		return committed[b];
+	}
+
+	/**
+	 * Copies the blocks of a board into board b, which is left committed
+	 */
+	public void load(int b, Board board) {
+		int base = b * height;
+		for (int y = 0; y < height; y++) {
+			int row = 0;
+			for (int x = 0; x < width; x++) {
+				if (board.at(x, y) != null) { row |= 1 << x; }
+			}
+			rows[base + y] = row;
+		}
+		for (int x = 0; x < width; x++) {
+			heights[b * width + x] = board.getColumnHeight(x);
+		}
+		committed[b] = true;
+	}
+
+	/**
+	 * @return a new Board with the blocks of board b, all drawn in color
+	 */
+	public Board toBoard(int b, Color color) {
+		Board board = new Board(width, height);
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				if (isFilled(b, x, y)) { board.set(x, y, color); }
+			}
+		}
+		return board;
+	}
+
+	/**
+	 * @return rot[b], if it is a valid rotation id
+	 */
+	private int checkRotation(int[] rot, int b) {
+		int r = rot[b];
+		if (r < 0 || r >= pieceWidths.length) {
+			throw new IllegalArgumentException("bad rotation id for board " + b + ": " + r);
+		}
+		return r;
+	}
+
+	private void backup(int b) {
+		System.arraycopy(rows, b * height, bkupRows, b * height, height);
+		System.arraycopy(heights, b * width, bkupHeights, b * width, width);
+	}
+}
@@ -0,0 +1,124 @@
+/* Copyright 2019, Serena Li, All rights reserved. */
+import java.awt.Color;
+import java.nio.ByteBuffer;
+
+/**
+ * Rebuilds a Board on the receiving side from the frames written by
+ * BoardDeltaEncoder. Deltas are only applied on top of the frame immediately
+ * before them; after a gap the decoder waits for the next keyframe.
+ */
+public class BoardDeltaDecoder {
+	private final PieceSet pieces;
+	/* the committed blocks, null until the first keyframe arrives */
+	private Board board;
+	private Piece active;
+	private int activeX;
+	private int activeY;
+	/* tick of the last frame applied */
+	private int tick;
+	/* rows cleared by the last frame applied */
+	private int[] clearedRows = new int[0];
+
+	/**
+	 * @throws IllegalArgumentException if the set has more than
+	 * BoardDeltaEncoder.MAX_PIECES pieces
+	 */
+	public BoardDeltaDecoder(PieceSet pieces) {
+		if (pieces.size() > BoardDeltaEncoder.MAX_PIECES) {
+			throw new IllegalArgumentException("piece set has more than " + BoardDeltaEncoder.MAX_PIECES + " pieces: " + pieces.size());
+		}
+		this.pieces = pieces;
+	}
+
+	/**
+	 * Applies one frame. The buffer's position is advanced past the frame.
+	 * @return true if the frame was applied, false if it was a delta that could
+	 * not be applied because an earlier frame is missing
+	 */
+	public boolean decode(ByteBuffer frame) {
+		byte type = frame.get();
+		int frameTick = frame.getInt();
+		if (type == BoardDeltaEncoder.KEYFRAME) {
+			int width = frame.getShort();
+			int height = frame.getShort();
+			if (board == null || board.getWidth() != width || board.getHeight() != height) {
+				board = new Board(width, height);
+			}
+			for (int r = 0; r < height; r++) {
+				for (int c = 0; c < width; c++) {
+					board.set(c, r, color(frame.get()));
+				}
+			}
+			clearedRows = new int[0];
+		} else if (type == BoardDeltaEncoder.DELTA) {
+			if (board == null || frameTick != tick + 1) {
+				return false;
+			}
+			clearedRows = new int[frame.get() & 0xFF];
+			for (int i = 0; i < clearedRows.length; i++) {
+				clearedRows[i] = frame.get() & 0xFF;
+			}
+			int changed = frame.getShort() & 0xFFFF;
+			for (int i = 0; i < changed; i++) {
+				int c = frame.get() & 0xFF;
+				int r = frame.get() & 0xFF;
+				board.set(c, r, color(frame.get()));
+			}
+		} else {
+			throw new IllegalArgumentException("unknown frame type " + type);
+		}
+		int index = frame.get() & 0xFF;
+		int rotation = frame.get() & 0xFF;
+		activeX = frame.get();
+		activeY = frame.get();
+		active = null;
+		if (index != BoardDeltaEncoder.NO_PIECE) {
+			active = pieces.get(index);
+			for (int i = 0; i < rotation; i++) {
+				active = active.nextRotation();
+			}
+		}
+		tick = frameTick;
+		return true;
+	}
+
+	/**
+	 * @return the committed blocks of the remote board, or null before the first keyframe
+	 */
+	public Board getBoard() {
+		return board;
+	}
+
+	/**
+	 * @return the piece the remote player is moving, or null if there is none
+	 */
+	public Piece getActivePiece() {
+		return active;
+	}
+
+	public int getActiveX() {
+		return activeX;
+	}
+
+	public int getActiveY() {
+		return activeY;
+	}
+
+	/**
+	 * @return the rows cleared in the last frame, as indexes before they were removed
+	 */
+	public int[] getClearedRows() {
+		return clearedRows.clone();
+	}
+
+	private Color color(byte code) {
+		int c = code & 0xFF;
+		if (c == 0) {
+			return null;
+		} else if (c <= pieces.size()) {
+			return pieces.get(c - 1).getColor();
+		} else {
+			return Color.GRAY;
+		}
+	}
+}
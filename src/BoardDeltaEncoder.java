@@ -0,0 +1,173 @@
+/* Copyright 2019, Serena Li, All rights reserved. */
+import java.awt.Color;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+
+/**
+ * Encodes a board, tick by tick, as a stream of frames for spectators and
+ * remote renderers. A keyframe holds every block of the committed board; a delta
+ * holds only the blocks that changed since the previous frame, the rows that were
+ * cleared, and the position of the active piece. Changes are found using the
+ * rows the board reports as touched by place()/clearRows() before each commit().
+ *
+ * Frames are written into one reusable buffer, so a single encoder can feed any
+ * number of subscribers: each subscriber should write out frame.duplicate() before
+ * the next call to encode().
+ *
+ * Frame layout (big endian):
+ *   byte type, int tick
+ *   KEYFRAME: short width, short height, then width*height color codes, row by row from the bottom
+ *   DELTA: byte clearedCount, clearedCount row indexes as bytes,
+ *          short changedCount, changedCount (byte x, byte y, byte color code)
+ *   then the active piece: byte piece index (NO_PIECE for none), byte rotation, byte x, byte y
+ * Color code 0 is an empty block, i+1 is the color of piece i, and OTHER_COLOR
+ * is any color that does not belong to the piece set. Piece indexes, color codes
+ * and the cells and rows of a delta are unsigned bytes, so sets are limited to
+ * MAX_PIECES pieces and boards to 256 blocks on a side. If more rows were
+ * cleared since the last frame than a delta can list, a keyframe is sent instead.
+ */
+public class BoardDeltaEncoder {
+	public static final byte KEYFRAME = 1;
+	public static final byte DELTA = 2;
+	/* color code for blocks whose color is not in the piece set */
+	public static final int OTHER_COLOR = 255;
+	/* piece index sent when there is no active piece */
+	public static final int NO_PIECE = 255;
+	/* the most pieces a set can have so every color code fits below OTHER_COLOR */
+	public static final int MAX_PIECES = OTHER_COLOR - 1;
+
+	private final PieceSet pieces;
+	private final HashMap<Color, Integer> colorCodes;
+	private final int width;
+	private final int height;
+	/* a keyframe is sent at least once every keyframeInterval frames */
+	private final int keyframeInterval;
+	/* color codes the receivers currently have, indexed y * width + x */
+	private final byte[] sent;
+	/* reused for every frame */
+	private final ByteBuffer buffer;
+	private int tick;
+	/* frames sent since the last keyframe, counting the keyframe itself */
+	private int framesSinceKeyframe;
+	/* the most cleared rows a delta can list */
+	private final int maxCleared;
+	private boolean keyframeRequested;
+
+	/**
+	 * @throws IllegalArgumentException if the set has more than MAX_PIECES pieces
+	 * or the board is more than 256 blocks wide or high
+	 */
+	public BoardDeltaEncoder(PieceSet pieces, int width, int height, int keyframeInterval) {
+		if (pieces.size() > MAX_PIECES) {
+			throw new IllegalArgumentException("piece set has more than " + MAX_PIECES + " pieces: " + pieces.size());
+		}
+		if (width < 1 || width > 256 || height < 1 || height > 256) {
+			throw new IllegalArgumentException("board must be between 1x1 and 256x256: " + width + "x" + height);
+		}
+		this.pieces = pieces;
+		this.width = width;
+		this.height = height;
+		this.keyframeInterval = keyframeInterval;
+		this.sent = new byte[width * height];
+		this.colorCodes = new HashMap<Color, Integer>();
+		for (int i = 0; i < pieces.size(); i++) {
+			colorCodes.put(pieces.get(i).getColor(), i + 1);
+		}
+		this.maxCleared = Math.min(height, 255);
+		int keyframeSize = 9 + width * height;
+		int deltaSize = 8 + maxCleared + width * height * 3;
+		this.buffer = ByteBuffer.allocateDirect(Math.max(keyframeSize, deltaSize) + 4);
+		this.keyframeRequested = true;
+	}
+
+	/**
+	 * Makes the next call to encode() produce a keyframe, for example because a
+	 * new subscriber joined.
+	 */
+	public void requestKeyframe() {
+		keyframeRequested = true;
+	}
+
+	/**
+	 * Encodes the next frame. Only the committed contents of the board are sent as
+	 * blocks; the active piece is sent separately.
+	 * @param board the board to encode, its change tracking is reset
+	 * @param active the piece the player is moving, or null
+	 * @param x the x of the active piece
+	 * @param y the y of the active piece
+	 * @return the frame, positioned at 0 and valid until the next call to encode()
+	 */
+	public ByteBuffer encode(Board board, Piece active, int x, int y) {
+		buffer.clear();
+		if (keyframeRequested || framesSinceKeyframe >= keyframeInterval
+				|| board.getClearedCount() > maxCleared) {
+			writeKeyframe(board);
+			keyframeRequested = false;
+			framesSinceKeyframe = 1;
+		} else {
+			writeDelta(board);
+			framesSinceKeyframe++;
+		}
+		board.resetChanges();
+		writeActive(active, x, y);
+		tick++;
+		buffer.flip();
+		return buffer;
+	}
+
+	private void writeKeyframe(Board board) {
+		buffer.put(KEYFRAME).putInt(tick).putShort((short) width).putShort((short) height);
+		for (int r = 0; r < height; r++) {
+			for (int c = 0; c < width; c++) {
+				byte code = code(board.committedAt(c, r));
+				sent[r * width + c] = code;
+				buffer.put(code);
+			}
+		}
+	}
+
+	private void writeDelta(Board board) {
+		buffer.put(DELTA).putInt(tick);
+		int cleared = board.getClearedCount();
+		buffer.put((byte) cleared);
+		for (int i = 0; i < cleared; i++) {
+			buffer.put((byte) board.getClearedRow(i));
+		}
+		int countPos = buffer.position();
+		buffer.putShort((short) 0);
+		int changed = 0;
+		int high = Math.min(board.getChangedHigh(), height - 1);
+		for (int r = board.getChangedLow(); r <= high; r++) {
+			for (int c = 0; c < width; c++) {
+				byte code = code(board.committedAt(c, r));
+				if (sent[r * width + c] != code) {
+					sent[r * width + c] = code;
+					buffer.put((byte) c).put((byte) r).put(code);
+					changed++;
+				}
+			}
+		}
+		buffer.putShort(countPos, (short) changed);
+	}
+
+	private void writeActive(Piece active, int x, int y) {
+		int index = active == null ? -1 : pieces.indexOf(active);
+		if (index < 0) {
+			buffer.put((byte) NO_PIECE).put((byte) 0).put((byte) 0).put((byte) 0);
+			return;
+		}
+		int rotation = 0;
+		for (Piece p = pieces.get(index); p != active; p = p.nextRotation()) {
+			rotation++;
+		}
+		buffer.put((byte) index).put((byte) rotation).put((byte) x).put((byte) y);
+	}
+
+	private byte code(Color color) {
+		if (color == null) {
+			return 0;
+		}
+		Integer code = colorCodes.get(color);
+		return (byte) (code == null ? OTHER_COLOR : code);
+	}
+}
@@ -0,0 +1,36 @@
+/* Copyright 2019, Serena Li, All rights reserved. */
+/**
+ * Scores a board for the bots: higher is better. The score is a weighted sum of
+ * the total column height, the number of holes (empty blocks below the top of
+ * their column), the bumpiness (the sum of height differences between
+ * neighboring columns), and the number of rows cleared to reach the board.
+ */
+public class BoardEvaluator {
+	public static final double HEIGHT_WEIGHT = -0.510066;
+	public static final double LINES_WEIGHT = 0.760666;
+	public static final double HOLES_WEIGHT = -0.35663;
+	public static final double BUMPINESS_WEIGHT = -0.184483;
+
+	/**
+	 * @param board the board to score
+	 * @param linesCleared the number of rows cleared to reach this board
+	 * @return the score of the board
+	 */
+	public static double evaluate(Board board, int linesCleared) {
+		int totalHeight = 0;
+		int holes = 0;
+		int bumpiness = 0;
+		for (int x = 0; x < board.getWidth(); x++) {
+			int h = board.getColumnHeight(x);
+			totalHeight += h;
+			for (int y = 0; y < h; y++) {
+				if (board.at(x, y) == null) { holes++; }
+			}
+			if (x > 0) {
+				bumpiness += Math.abs(h - board.getColumnHeight(x - 1));
+			}
+		}
+		return HEIGHT_WEIGHT * totalHeight + LINES_WEIGHT * linesCleared
+				+ HOLES_WEIGHT * holes + BUMPINESS_WEIGHT * bumpiness;
+	}
+}
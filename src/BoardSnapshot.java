@@ -0,0 +1,92 @@
+/* Copyright 2019, Serena Li, All rights reserved. */
+import java.awt.Color;
+
+/**
+ * An immutable view of a Board at one point in time. Snapshots share the row
+ * arrays of the board they were taken from: the board copies a row before it
+ * writes to it again, so a snapshot costs O(height + width) to take no matter
+ * how many blocks are filled, and consecutive snapshots share every row that
+ * did not change. Snapshots can be read from any thread without locking.
+ */
+public final class BoardSnapshot {
+	/* rows[y][x], never written once the snapshot exists */
+	private final Color[][] rows;
+	private final int[] widths;
+	private final int[] heights;
+
+	BoardSnapshot(Color[][] rows, int[] widths, int[] heights) {
+		this.rows = rows;
+		this.widths = widths;
+		this.heights = heights;
+	}
+
+	/**
+	 * @return the block at (x, y), or null if there is no block there
+	 */
+	public Color at(int x, int y) {
+		return rows[y][x];
+	}
+
+	public int getWidth() {
+		return heights.length;
+	}
+
+	public int getHeight() {
+		return rows.length;
+	}
+
+	/**
+	 * @return the height of column x
+	 */
+	public int getColumnHeight(int x) {
+		return heights[x];
+	}
+
+	/**
+	 * @return the number of filled blocks in row y
+	 */
+	public int getRowWidth(int y) {
+		return widths[y];
+	}
+
+	/**
+	 * @return the maximum height of any column
+	 */
+	public int getMaxHeight() {
+		int curMax = 0;
+		for (int h : heights) {
+			if (h > curMax) { curMax = h; }
+		}
+		return curMax;
+	}
+
+	/**
+	 * @return true if row y holds the same blocks as row y of other. Rows that
+	 * were not touched between two snapshots are the same array, so this is
+	 * usually a reference comparison.
+	 */
+	public boolean sameRow(BoardSnapshot other, int y) {
+		if (rows[y] == other.rows[y]) {
+			return true;
+		}
+		for (int x = 0; x < rows[y].length; x++) {
+			if (rows[y][x] != other.rows[y][x]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @return a new, committed Board with the contents of this snapshot, sharing
+	 * its rows until the board writes to them
+	 */
+	public Board toBoard() {
+		return new Board(rows, widths, heights);
+	}
+
+	@Override
+	public String toString() {
+		return toBoard().toString();
+	}
+}
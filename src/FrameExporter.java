@@ -0,0 +1,107 @@
+/* Copyright 2019, Serena Li, All rights reserved. */
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Renders a stream of board snapshots on a pool of worker threads and passes
+ * the frames to a FrameSink in order. Frames are rendered in batches of one
+ * frame per thread. Each batch is rendered into one of two sets of renderers
+ * while the sink is writing out the previous batch from the other set, so
+ * workers are not left waiting on the sink's I/O.
+ */
+public class FrameExporter {
+	private final ExecutorService pool;
+	/* two sets of renderers, one frame per thread in each */
+	private final FrameRenderer[][] renderers;
+	private final int threads;
+
+	/**
+	 * @param threads the number of rendering threads
+	 * @param boardWidth the width of the boards to draw, in blocks
+	 * @param boardHeight the height of the boards to draw, in blocks
+	 * @param topSpace the number of rows at the top to separate with a line, or 0 for none
+	 * @param blockSize the size of each block in pixels
+	 */
+	public FrameExporter(int threads, int boardWidth, int boardHeight, int topSpace, int blockSize) {
+		this.threads = threads;
+		this.renderers = new FrameRenderer[2][threads];
+		for (int set = 0; set < 2; set++) {
+			for (int i = 0; i < threads; i++) {
+				renderers[set][i] = new FrameRenderer(boardWidth, boardHeight, topSpace, blockSize);
+			}
+		}
+		this.pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "frame-exporter");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Renders every snapshot from frames and passes it to sink, then closes the sink.
+	 * @return the number of frames written
+	 */
+	public int export(Iterator<BoardSnapshot> frames, FrameSink sink) throws IOException {
+		try {
+			int written = 0;
+			int set = 0;
+			List<Future<?>> pending = new ArrayList<Future<?>>(threads);
+			int pendingCount = 0;
+			while (frames.hasNext() || pendingCount > 0) {
+				// start rendering the next batch into this set
+				List<Future<?>> started = new ArrayList<Future<?>>(threads);
+				int startedCount = 0;
+				while (startedCount < threads && frames.hasNext()) {
+					final FrameRenderer r = renderers[set][startedCount];
+					final BoardSnapshot snapshot = frames.next();
+					started.add(pool.submit(new Runnable() {
+						@Override
+						public void run() {
+							r.render(snapshot);
+						}
+					}));
+					startedCount++;
+				}
+				// meanwhile write out the previous batch from the other set
+				for (int i = 0; i < pendingCount; i++) {
+					await(pending.get(i));
+					sink.frame(written++, renderers[1 - set][i]);
+				}
+				pending = started;
+				pendingCount = startedCount;
+				set = 1 - set;
+			}
+			return written;
+		} finally {
+			sink.close();
+		}
+	}
+
+	/**
+	 * Stops the worker threads
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	private static void await(Future<?> f) throws IOException {
+		try {
+			f.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("interrupted while rendering", e);
+		} catch (ExecutionException e) {
+			throw new IOException("rendering failed", e.getCause());
+		}
+	}
+}
@@ -0,0 +1,131 @@
+/* Copyright 2019, Serena Li, All rights reserved. */
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.Arrays;
+
+/**
+ * Draws boards into an offscreen image without a live component, for exporting
+ * video frames and thumbnails. The layout matches JTetris.paintComponent(): a
+ * border, a line under the top rows where pieces start, and one inset square
+ * per block. The image is reused for every frame and drawn by writing its pixel
+ * array directly: the empty board is drawn once and copied in, then each block
+ * fills only its inner square, so the border and dividing line are never drawn
+ * over. A renderer is not thread safe, so each thread should have its own.
+ */
+public class FrameRenderer {
+	private static final int BACKGROUND = Color.WHITE.getRGB();
+	private static final int FOREGROUND = Color.BLACK.getRGB();
+
+	/* board size in blocks */
+	private final int boardWidth;
+	private final int boardHeight;
+	/* size of each block in pixels */
+	private final int blockSize;
+	/* image size in pixels */
+	private final int imageWidth;
+	private final int imageHeight;
+	private final BufferedImage image;
+	/* the image's own pixel array, 0xRRGGBB row by row from the top */
+	private final int[] pixels;
+	/* the pixels of the empty board */
+	private final int[] background;
+
+	/**
+	 * @param boardWidth the width of the boards to draw, in blocks
+	 * @param boardHeight the height of the boards to draw, in blocks
+	 * @param topSpace the number of rows at the top to separate with a line, or 0 for none
+	 * @param blockSize the size of each block in pixels, at least 4
+	 */
+	public FrameRenderer(int boardWidth, int boardHeight, int topSpace, int blockSize) {
+		if (blockSize < 4) {
+			throw new IllegalArgumentException("block size must be at least 4: " + blockSize);
+		}
+		this.boardWidth = boardWidth;
+		this.boardHeight = boardHeight;
+		this.blockSize = blockSize;
+		this.imageWidth = boardWidth * blockSize + 2;
+		this.imageHeight = boardHeight * blockSize + 2;
+		this.image = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_RGB);
+		this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+
+		this.background = new int[imageWidth * imageHeight];
+		Arrays.fill(background, BACKGROUND);
+		for (int x = 0; x < imageWidth; x++) {
+			background[x] = FOREGROUND;
+			background[(imageHeight - 1) * imageWidth + x] = FOREGROUND;
+			if (topSpace > 0) {
+				background[(topSpace * blockSize) * imageWidth + x] = FOREGROUND;
+			}
+		}
+		for (int y = 0; y < imageHeight; y++) {
+			background[y * imageWidth] = FOREGROUND;
+			background[y * imageWidth + imageWidth - 1] = FOREGROUND;
+		}
+	}
+
+	/**
+	 * Draws a board into the image
+	 * @return the image, which is overwritten by the next call to render()
+	 */
+	public BufferedImage render(BoardSnapshot board) {
+		System.arraycopy(background, 0, pixels, 0, pixels.length);
+		int rows = Math.min(boardHeight, board.getHeight());
+		int cols = Math.min(boardWidth, board.getWidth());
+		for (int y = 0; y < rows; y++) {
+			if (board.getRowWidth(y) == 0) {
+				continue;
+			}
+			// board row 0 is at the bottom of the image
+			int top = 1 + (boardHeight - 1 - y) * blockSize;
+			for (int x = 0; x < cols; x++) {
+				Color color = board.at(x, y);
+				if (color != null) {
+					fillBlock(color.getRGB(), 1 + x * blockSize, top);
+				}
+			}
+		}
+		return image;
+	}
+
+	/**
+	 * @return the image drawn by the last call to render()
+	 */
+	public BufferedImage getImage() {
+		return image;
+	}
+
+	/**
+	 * Copies the last frame into out as packed 8-bit RGB, row by row from the top,
+	 * the layout expected by video encoders reading raw rgb24 frames.
+	 * @param out an array of at least getImageWidth() * getImageHeight() * 3 bytes
+	 */
+	public void toRGB(byte[] out) {
+		for (int i = 0, j = 0; i < pixels.length; i++, j += 3) {
+			int p = pixels[i];
+			out[j] = (byte) (p >> 16);
+			out[j + 1] = (byte) (p >> 8);
+			out[j + 2] = (byte) p;
+		}
+	}
+
+	public int getImageWidth() {
+		return imageWidth;
+	}
+
+	public int getImageHeight() {
+		return imageHeight;
+	}
+
+	/**
+	 * Fills the inner square of a block whose top left pixel is (left, top), leaving
+	 * 2 pixels at the right and bottom, like the blocks JTetris draws
+	 */
+	private void fillBlock(int rgb, int left, int top) {
+		int size = blockSize - 3;
+		for (int sy = 0; sy < size; sy++) {
+			int start = (top + sy) * imageWidth + left;
+			Arrays.fill(pixels, start, start + size, rgb);
+		}
+	}
+}
@@ -0,0 +1,15 @@
+/* Copyright 2019, Serena Li, All rights reserved. */
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Receives rendered frames from a FrameExporter, in frame order and always on
+ * the same thread.
+ */
+public interface FrameSink extends Closeable {
+	/**
+	 * @param index the number of the frame, starting at 0
+	 * @param renderer the renderer holding the frame; it is reused once this returns
+	 */
+	void frame(int index, FrameRenderer renderer) throws IOException;
+}
@@ -0,0 +1,35 @@
+/* Copyright 2019, Serena Li, All rights reserved. */
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Writes each frame to its own image file, named frame-000000.png and so on.
+ */
+public class ImageFileSink implements FrameSink {
+	private final Path dir;
+	private final String format;
+
+	/**
+	 * @param dir the directory to write into, created if it does not exist
+	 * @param format an ImageIO format name such as "png", also used as the file extension
+	 */
+	public ImageFileSink(Path dir, String format) throws IOException {
+		this.dir = Files.createDirectories(dir);
+		this.format = format;
+	}
+
+	@Override
+	public void frame(int index, FrameRenderer renderer) throws IOException {
+		Path file = dir.resolve(String.format("frame-%06d.%s", index, format));
+		if (!ImageIO.write(renderer.getImage(), format, file.toFile())) {
+			throw new IOException("no ImageIO writer for format " + format);
+		}
+	}
+
+	@Override
+	public void close() {
+	}
+}
@@ -0,0 +1,83 @@
+/* Copyright 2019, Serena Li, All rights reserved. */
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded, lock-free single-producer single-consumer queue of timestamped
+ * moves. The producer (the Swing event thread) calls offer() and the consumer
+ * (the simulation thread) calls drain(). Moves are stored as ints in a ring
+ * buffer alongside the System.nanoTime() at which they were generated, so no
+ * objects are allocated per event.
+ */
+public class InputQueue {
+	/* move codes, one slot per event */
+	private final int[] moves;
+	/* the time (System.nanoTime()) each event was generated */
+	private final long[] times;
+	/* capacity - 1, capacity is always a power of two */
+	private final int mask;
+	/* index of the next slot the producer will write, only written by the producer */
+	private final AtomicLong tail = new AtomicLong();
+	/* index of the next slot the consumer will read, only written by the consumer */
+	private final AtomicLong head = new AtomicLong();
+	/* the producer's cached copy of head, so it rarely has to read the consumer's counter */
+	private long headCache;
+
+	public InputQueue(int capacity) {
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		this.moves = new int[size];
+		this.times = new long[size];
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Adds a move to the queue. Must only be called from the producer thread.
+	 * @param move the move code
+	 * @param time the System.nanoTime() when the move was generated
+	 * @return false if the queue is full and the move was dropped
+	 */
+	public boolean offer(int move, long time) {
+		long t = tail.get();
+		if (t - headCache > mask) {
+			headCache = head.get();
+			if (t - headCache > mask) {
+				return false;
+			}
+		}
+		int slot = (int) t & mask;
+		moves[slot] = move;
+		times[slot] = time;
+		// lazySet orders the slot writes before the new tail becomes visible
+		tail.lazySet(t + 1);
+		return true;
+	}
+
+	/**
+	 * Removes up to max moves from the queue. Must only be called from the
+	 * consumer thread.
+	 * @param outMoves receives the move codes
+	 * @param outTimes receives the time each move was generated
+	 * @param max the maximum number of moves to remove
+	 * @return the number of moves removed
+	 */
+	public int drain(int[] outMoves, long[] outTimes, int max) {
+		long h = head.get();
+		int count = (int) Math.min(tail.get() - h, max);
+		for (int i = 0; i < count; i++) {
+			int slot = (int) (h + i) & mask;
+			outMoves[i] = moves[slot];
+			outTimes[i] = times[slot];
+		}
+		head.lazySet(h + count);
+		return count;
+	}
+
+	/**
+	 * @return true if there are no moves waiting to be drained
+	 */
+	public boolean isEmpty() {
+		return head.get() == tail.get();
+	}
+}
@@ -2,19 +2,23 @@
 import java.awt.Color;
 import java.awt.Graphics;
 import java.awt.Graphics2D;
+import java.awt.Point;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
-import java.util.Random;
+import java.util.concurrent.locks.LockSupport;
 
 import javax.swing.AbstractAction;
 import javax.swing.JComponent;
 import javax.swing.JFrame;
 import javax.swing.KeyStroke;
+import javax.swing.SwingUtilities;
 import javax.swing.Timer;
 
 public class JTetris extends JComponent {
 	/* A Board object that stores the current state of the board */
 	private Board board;
+	/* The latest snapshot of board, published by the simulation thread for painting */
+	private volatile BoardSnapshot view;
 	/* All the possible pieces */
 	private Piece[] pieces;
 	
@@ -28,9 +32,9 @@ public class JTetris extends JComponent {
 	private boolean moved;
 	
 	/* Indicates if the game going on right now. gamePlaying is false when paused or when game is over */
-	private boolean gamePlaying;
+	private volatile boolean gamePlaying;
 	/* If the game has been lost */
-	private boolean gameLost;
+	private volatile boolean gameLost;
 	/* If we should display the board */
 	private boolean displayBoard;
 	/* Random generator for the pieces */
@@ -43,6 +47,22 @@ public class JTetris extends JComponent {
 	// the previous move
 	private String prevMove;
 	
+	/* Moves from the key bindings and the timer, waiting to be applied by the simulation thread */
+	private final InputQueue input = new InputQueue(INPUT_CAPACITY);
+	/* The thread that drains input and applies it to the board, started by startGame() */
+	private final Thread simulation;
+	/* buffers the simulation thread drains input into */
+	private final int[] drainedMoves = new int[INPUT_CAPACITY];
+	private final long[] drainedTimes = new long[INPUT_CAPACITY];
+	/* number of pieces that have landed, used to tell if a move locked the current piece */
+	private int lockCount;
+	/* the time of the oldest player input applied to the current piece, 0 if there is none */
+	private long pendingInputTime;
+	/* time from a key press to the simulation thread applying it */
+	private final LatencyStats inputLatency = new LatencyStats("input to apply");
+	/* time from the first key press on a piece to that piece landing */
+	private final LatencyStats lockLatency = new LatencyStats("input to lock");
+	
 	/* Width of the playable area of the board */
 	public static final int BOARD_WIDTH = 10;
 	/* Height of the playable area of the board */
@@ -56,10 +76,26 @@ public class JTetris extends JComponent {
 	private static final String ROTATE = "ROTATE";
 	private static final String DOWN = "DOWN";
 	
-	public JTetris() {}
+	// move codes passed through the input queue
+	private static final int MOVE_ROTATE = 0;
+	private static final int MOVE_RIGHT = 1;
+	private static final int MOVE_LEFT = 2;
+	private static final int MOVE_DOWN = 3;
+	private static final int MOVE_DROP = 4;
+	/* a DOWN generated by the timer rather than the player */
+	private static final int MOVE_GRAVITY = 5;
+	
+	/* the most moves that can be waiting in the input queue */
+	private static final int INPUT_CAPACITY = 256;
+	
+	public JTetris() {
+		simulation = new Thread(new SimulationLoop(), "tetris-simulation");
+		simulation.setDaemon(true);
+	}
 	@Override
 	public void paintComponent(Graphics g) {
-		if (displayBoard) {
+		BoardSnapshot snapshot = view;
+		if (displayBoard && snapshot != null) {
 			Graphics2D g2 = (Graphics2D) g;
 			int blockHeight = (this.getHeight()) / (BOARD_HEIGHT + TOP_SPACE);
 			int blockWidth = (this.getWidth()) / (BOARD_WIDTH);
@@ -74,22 +110,25 @@ public class JTetris extends JComponent {
 			
 			for (int x = 0; x < BOARD_WIDTH; x++) {
 				for (int y = 0; y < BOARD_HEIGHT+TOP_SPACE; y++) {
-					Color color = board.at(x, y);
+					Color color = snapshot.at(x, y);
 					if (color != null) {
 						g2.setColor(color);
 						g2.fillRect(x*blockWidth + 1, usableHeight - (y+1)*blockHeight + 1, blockWidth-3, blockHeight-3);
 					}
 				}
 			}
-			if (gameLost) { // display "GAME OVER"
+			if (gameLost) { // display "GAME OVER" and how responsive the game was
+				int lineHeight = g2.getFontMetrics().getHeight();
 				g2.drawString("GAME OVER", 0, usableHeight/2);
+				g2.drawString(inputLatency.toString(), 0, usableHeight/2 + lineHeight);
+				g2.drawString(lockLatency.toString(), 0, usableHeight/2 + lineHeight*2);
 			}
 		}
 	}
 	
 	/**
 	 * Sets up the board, pieces, and key bindings. Starts the timer for moving the pieces
-	 * down every x milliseconds.
+	 * down every x milliseconds. Must be called once, on the event dispatch thread.
 	 */
 	public void startGame() {
 		gamePlaying = true;
@@ -105,18 +144,189 @@ public class JTetris extends JComponent {
 		this.getInputMap().put(KeyStroke.getKeyStroke("DOWN"), DOWN);
 		this.getInputMap().put(KeyStroke.getKeyStroke("SPACE"), DROP);
 		
-		this.getActionMap().put(ROTATE, new MoveAction(ROTATE));
-		this.getActionMap().put(RIGHT, new MoveAction(RIGHT));
-		this.getActionMap().put(LEFT, new MoveAction(LEFT));
-		this.getActionMap().put(DOWN, new MoveAction(DOWN));
-		this.getActionMap().put(DROP, new MoveAction(DROP));
+		this.getActionMap().put(ROTATE, new MoveAction(MOVE_ROTATE));
+		this.getActionMap().put(RIGHT, new MoveAction(MOVE_RIGHT));
+		this.getActionMap().put(LEFT, new MoveAction(MOVE_LEFT));
+		this.getActionMap().put(DOWN, new MoveAction(MOVE_DOWN));
+		this.getActionMap().put(DROP, new MoveAction(MOVE_DROP));
 		this.addNewPiece();
+		showBoard();
 		// set up the timer
 		ActionListener dropPiece = new DropPieceListener(this);
 		this.moveDownTimer = new Timer(delay, dropPiece);
+		// start the simulation thread before any input can arrive
+		simulation.start();
 		moveDownTimer.start();
 	}
 	
+	/**
+	 * Queues a move for the simulation thread. Only called from the event dispatch
+	 * thread, which is the single producer of the input queue.
+	 * @param move the move code
+	 */
+	private void enqueue(int move) {
+		if (input.offer(move, System.nanoTime())) {
+			LockSupport.unpark(simulation);
+		}
+	}
+	
+	/**
+	 * Applies a batch of moves drained from the input queue, in the order they
+	 * arrived. Runs of the same move are coalesced: a run of shifts moves the piece
+	 * once to the furthest free column, a run of drops is applied once, and full
+	 * rotation cycles are skipped once one has brought the piece back to where it
+	 * started (a cycle that wall-kicked the piece is applied in full). The board is
+	 * only repainted once for the whole batch.
+	 * @param count the number of moves in drainedMoves/drainedTimes
+	 */
+	private void applyInput(int count) {
+		long now = System.nanoTime();
+		int i = 0;
+		while (i < count) {
+			int mv = kind(drainedMoves[i]);
+			int run = 0;
+			// gather the run of consecutive moves of the same kind
+			while (i < count && kind(drainedMoves[i]) == mv) {
+				if (drainedMoves[i] != MOVE_GRAVITY) {
+					inputLatency.record(now - drainedTimes[i]);
+					if (pendingInputTime == 0) { pendingInputTime = drainedTimes[i]; }
+				}
+				run++;
+				i++;
+			}
+			if (curPiece == null) {
+				continue;
+			}
+			switch (mv) {
+			case MOVE_ROTATE: rotate(run); break;
+			case MOVE_RIGHT: shift(RIGHT, run); break;
+			case MOVE_LEFT: shift(LEFT, run); break;
+			case MOVE_DOWN:
+				int locks = lockCount;
+				for (int k = 0; k < run && lockCount == locks; k++) {
+					step(DOWN);
+				}
+				break;
+			case MOVE_DROP: step(DROP); break;
+			default: break;
+			}
+		}
+		showBoard();
+	}
+	
+	/**
+	 * @return the move code that mv is coalesced with, gravity counts as DOWN
+	 */
+	private static int kind(int mv) {
+		return mv == MOVE_GRAVITY ? MOVE_DOWN : mv;
+	}
+	
+	/**
+	 * Moves the current piece up to n columns in direction mv. Every column on the
+	 * way is checked, so the piece stops at the first one it doesn't fit in, and
+	 * the piece is only placed on the board once, in the last free column.
+	 * @param mv LEFT or RIGHT
+	 */
+	private void shift(String mv, int n) {
+		if (!gamePlaying || gameLost) {
+			return;
+		}
+		int dx = mv == RIGHT ? 1 : -1;
+		int x = curX;
+		for (int i = 0; i < n && fits(curPiece, x + dx, curY); i++) {
+			x += dx;
+		}
+		if (x != curX) {
+			setCurrent(curPiece, x, curY);
+		} else if (n > 0) {
+			step(mv); // blocked straight away, let step() put the piece back as it always has
+		}
+	}
+	
+	/**
+	 * @return true if piece can be placed at (x, y) on the committed board, that is
+	 * the board without the current piece
+	 */
+	private boolean fits(Piece piece, int x, int y) {
+		if (x < 0 || y < 0 || x + piece.getWidth() > board.getWidth() || y + piece.getHeight() > board.getHeight()) {
+			return false;
+		}
+		for (Point pt : piece.getBody()) {
+			if (board.committedAt(x + pt.x, y + pt.y) != null) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Rotates the current piece n times. Once a full cycle of rotations leaves the
+	 * piece where it started, the remaining full cycles would too and are skipped.
+	 */
+	private void rotate(int n) {
+		int cycle = rotationCount(curPiece);
+		for (int c = n / cycle; c > 0; c--) {
+			Piece startPiece = curPiece;
+			int startX = curX;
+			int startY = curY;
+			for (int k = 0; k < cycle; k++) {
+				step(ROTATE);
+			}
+			if (curPiece == startPiece && curX == startX && curY == startY) {
+				break;
+			}
+		}
+		for (int k = n % cycle; k > 0; k--) {
+			step(ROTATE);
+		}
+	}
+	
+	/**
+	 * Publishes a snapshot of the board for paintComponent() and asks for a repaint.
+	 * The snapshot is immutable, so painting never sees a half-applied move. Only
+	 * called once per batch of input, not by step().
+	 */
+	private void showBoard() {
+		view = board.snapshot();
+		repaint();
+	}
+	
+	/**
+	 * @return the number of distinct rotations of piece
+	 */
+	private static int rotationCount(Piece piece) {
+		int count = 1;
+		for (Piece p = piece.nextRotation(); p != piece; p = p.nextRotation()) {
+			count++;
+		}
+		return count;
+	}
+	
+	/**
+	 * Called by step() whenever the current piece lands
+	 */
+	private void pieceLocked() {
+		lockCount++;
+		if (pendingInputTime != 0) {
+			lockLatency.record(System.nanoTime() - pendingInputTime);
+			pendingInputTime = 0;
+		}
+	}
+	
+	/**
+	 * @return latency from a key press to the simulation thread applying it
+	 */
+	public LatencyStats getInputLatency() {
+		return inputLatency;
+	}
+	
+	/**
+	 * @return latency from the first key press on a piece to the piece landing
+	 */
+	public LatencyStats getLockLatency() {
+		return lockLatency;
+	}
+	
 	/**
 	 * Sets curPiece to piece, sets curX to x, curY to Y, and 
 	 * places the piece on the board.
@@ -157,9 +367,7 @@ public class JTetris extends JComponent {
 				return Board.PLACE_BAD;
 			}
 			Piece nextPiece = pickNextPiece();
-			int result = setCurrent(nextPiece, (BOARD_WIDTH-nextPiece.getWidth())/2, BOARD_HEIGHT);
-			repaint();
-			return result;
+			return setCurrent(nextPiece, (BOARD_WIDTH-nextPiece.getWidth())/2, BOARD_HEIGHT);
 		} else {
 			return Board.PLACE_BAD;
 		}
@@ -183,7 +391,8 @@ public class JTetris extends JComponent {
 	}
 	
 	/**
-	 * Does the move mv to the current Piece
+	 * Does the move mv to the current Piece. The board is not repainted, callers
+	 * publish it with showBoard() when they are done.
 	 * @param mv The move to execute
 	 */
 	public void step(String mv) {
@@ -196,6 +405,7 @@ public class JTetris extends JComponent {
 			int testPlace = board.place(curPiece, pos[0], pos[1]);
 			// check if the piece has landed
 			if ((testPlace == Board.PLACE_BAD || testPlace == Board.PLACE_OUT_BOUNDS) && (mv == DOWN || mv == DROP)) {
+				pieceLocked();
 				if (board.getMaxHeight()+1 > BOARD_HEIGHT) { // if the piece has gone over the top of the board, player has lost
 					board.undo();
 					board.place(curPiece, curX, curY);
@@ -206,12 +416,10 @@ public class JTetris extends JComponent {
 					board.place(curPiece, curX, curY);
 					board.clearRows();
 					board.commit();
-					repaint();
 					this.addNewPiece();
 				}
 			} else if (testPlace == Board.PLACE_OK || testPlace == Board.PLACE_ROW_FILLED) {
 				this.setCurrent(curPiece, pos[0], pos[1]);
-				repaint();
 			} else { // if we can't move the piece to this place
 				board.undo();
 				board.place(curPiece, curX, curY);
@@ -250,16 +458,15 @@ public class JTetris extends JComponent {
 	}
 	
 	class MoveAction extends AbstractAction {
-		private String move;
-		MoveAction(String move) {
+		private int move;
+		MoveAction(int move) {
 			this.move = move;
 		}
 		
 		@Override
 		public void actionPerformed(ActionEvent e) {
 			JTetris x = (JTetris)e.getSource();
-			x.step(move);
-			x.repaint();
+			x.enqueue(move);
 		}
 		
 	}
@@ -271,18 +478,44 @@ public class JTetris extends JComponent {
 		}
 		@Override
 		public void actionPerformed(ActionEvent evt) {
-			t.step(JTetris.DOWN);
+			t.enqueue(MOVE_GRAVITY);
+		}
+	}
+	
+	/**
+	 * Drains the input queue and applies the moves to the board. Parks while there
+	 * is nothing to do; enqueue() wakes it up.
+	 */
+	class SimulationLoop implements Runnable {
+		@Override
+		public void run() {
+			while (gamePlaying && !gameLost) {
+				int count = input.drain(drainedMoves, drainedTimes, drainedMoves.length);
+				if (count > 0) {
+					applyInput(count);
+				} else {
+					LockSupport.park(this);
+				}
+			}
+			moveDownTimer.stop();
+			showBoard();
 		}
 	}
 	
 	public static void main(String[] args) {
-		JFrame frame = new JFrame();
-		frame.setSize(BOARD_WIDTH*20, (BOARD_HEIGHT+TOP_SPACE)*20);
-		frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
-		JTetris tComp = new JTetris();
-		frame.add(tComp);
-		frame.setVisible(true);
-		tComp.grabFocus();
-		tComp.startGame();
+		// build the frame and start the game on the event dispatch thread, which also runs the key bindings
+		SwingUtilities.invokeLater(new Runnable() {
+			@Override
+			public void run() {
+				JFrame frame = new JFrame();
+				frame.setSize(BOARD_WIDTH*20, (BOARD_HEIGHT+TOP_SPACE)*20);
+				frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
+				JTetris tComp = new JTetris();
+				frame.add(tComp);
+				frame.setVisible(true);
+				tComp.grabFocus();
+				tComp.startGame();
+			}
+		});
 	}
 }
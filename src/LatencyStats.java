@@ -0,0 +1,50 @@
+/* Copyright 2019, Serena Li, All rights reserved. */
+/**
+ * Accumulates latency samples (in nanoseconds). Samples are recorded by a
+ * single thread; the getters may be read from any thread and give a
+ * consistent-enough view for display and logging.
+ */
+public class LatencyStats {
+	private final String name;
+	private volatile long count;
+	private volatile long total;
+	private volatile long max;
+
+	public LatencyStats(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * Records one sample. Must only be called from one thread.
+	 * @param nanos the latency of the sample in nanoseconds
+	 */
+	public void record(long nanos) {
+		total += nanos;
+		if (nanos > max) { max = nanos; }
+		count++;
+	}
+
+	public long getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the mean latency in nanoseconds, or 0 if nothing has been recorded
+	 */
+	public long getMean() {
+		long c = count;
+		return c == 0 ? 0 : total / c;
+	}
+
+	/**
+	 * @return the largest latency recorded in nanoseconds
+	 */
+	public long getMax() {
+		return max;
+	}
+
+	@Override
+	public String toString() {
+		return name + ": n=" + getCount() + " mean=" + getMean() / 1000 + "us max=" + getMax() / 1000 + "us";
+	}
+}
@@ -0,0 +1,279 @@
+/* Copyright 2019, Serena Li, All rights reserved. */
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Chooses where to place the current piece when the pieces after it are only
+ * partly known. The bag of a Randp tells which pieces can come next, so the
+ * search weights each of them equally.
+ *
+ * expectimax() looks one piece ahead: for every placement of the current piece it
+ * averages, over the pieces left in the bag, the best score reachable with that
+ * piece. monteCarlo() instead plays short random games after each placement on a
+ * pool of threads until a time budget runs out, and picks the placement with the
+ * best average result. Both work on cheap Board copies and place()/undo(), and
+ * never modify the board they are given, which must be committed.
+ */
+public class Lookahead {
+	/**
+	 * A placement of a piece: the rotation to use, the column of its lower left
+	 * corner, the row it lands on, and the score the search gave it.
+	 */
+	public static final class Move {
+		private final Piece piece;
+		private final int x;
+		private final int y;
+		private final double score;
+
+		Move(Piece piece, int x, int y, double score) {
+			this.piece = piece;
+			this.x = x;
+			this.y = y;
+			this.score = score;
+		}
+
+		public Piece getPiece() {
+			return piece;
+		}
+
+		public int getX() {
+			return x;
+		}
+
+		public int getY() {
+			return y;
+		}
+
+		public double getScore() {
+			return score;
+		}
+	}
+
+	/* the score of a board where the piece could not be placed at all */
+	public static final double LOSS = -1e9;
+
+	private final ExecutorService pool;
+	private final int threads;
+	/* the number of pieces played after the scored placement in each rollout */
+	private final int rolloutDepth;
+
+	/**
+	 * @param threads the number of threads monteCarlo() runs rollouts on
+	 * @param rolloutDepth the number of pieces each rollout plays
+	 */
+	public Lookahead(int threads, int rolloutDepth) {
+		this.threads = threads;
+		this.rolloutDepth = rolloutDepth;
+		this.pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "lookahead");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+	}
+
+	/**
+	 * Expectimax search over the current piece and the next piece drawn from bag.
+	 * @return the best placement of current, or null if it can't be placed
+	 */
+	public Move expectimax(Board board, Piece current, Randp<Piece> bag) {
+		List<Piece> next = bag.remaining();
+		Move best = null;
+		for (Move m : placements(board, current)) {
+			Board child = board.copy();
+			child.place(m.piece, m.x, m.y);
+			int lines = fullRows(child, m.y, m.piece.getHeight());
+			child.clearRows();
+			child.commit();
+			double total = 0;
+			for (Piece p : next) {
+				Move reply = greedy(child, p, lines);
+				total += reply == null ? LOSS : reply.score;
+			}
+			double score = total / next.size();
+			if (best == null || score > best.score) {
+				best = new Move(m.piece, m.x, m.y, score);
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Monte-Carlo search: every thread repeatedly takes a placement of current,
+	 * plays rolloutDepth more pieces from its own copy of bag choosing each greedily,
+	 * and scores the final board. Rollouts stop once budgetNanos have passed. If no
+	 * rollout finishes in time, the greedy placement of current is returned, so a
+	 * move is always available.
+	 * @return the placement with the best average rollout score, or null if current can't be placed
+	 */
+	public Move monteCarlo(Board board, Piece current, Randp<Piece> bag, long budgetNanos) {
+		long deadline = System.nanoTime() + budgetNanos;
+		// on a copy, since greedy() leaves its board uncommitted
+		Move fallback = greedy(board.copy(), current, 0);
+		List<Move> moves = placements(board, current);
+		if (moves.isEmpty()) {
+			return null;
+		}
+		List<Future<double[]>> results = new ArrayList<Future<double[]>>(threads);
+		for (int i = 0; i < threads; i++) {
+			// each thread gets its own copies, so nothing it writes is shared
+			results.add(pool.submit(new Rollouts(board.copy(), moves, bag.copy(new Random()), deadline, i)));
+		}
+		double[] sums = new double[moves.size()];
+		double[] counts = new double[moves.size()];
+		for (Future<double[]> f : results) {
+			double[] r;
+			try {
+				r = f.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return fallback;
+			} catch (ExecutionException e) {
+				throw new RuntimeException(e.getCause());
+			}
+			for (int k = 0; k < moves.size(); k++) {
+				sums[k] += r[k * 2];
+				counts[k] += r[k * 2 + 1];
+			}
+		}
+		Move best = null;
+		for (int k = 0; k < moves.size(); k++) {
+			if (counts[k] > 0) {
+				double mean = sums[k] / counts[k];
+				if (best == null || mean > best.score) {
+					Move m = moves.get(k);
+					best = new Move(m.piece, m.x, m.y, mean);
+				}
+			}
+		}
+		return best == null ? fallback : best;
+	}
+
+	/**
+	 * Stops the rollout threads
+	 */
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	/**
+	 * Runs rollouts for one thread, returning {sum, count} for every move
+	 */
+	private class Rollouts implements Callable<double[]> {
+		private final Board base;
+		private final List<Move> moves;
+		private final Randp<Piece> bag;
+		private final long deadline;
+		private final int offset;
+		private final Random random = new Random();
+
+		Rollouts(Board base, List<Move> moves, Randp<Piece> bag, long deadline, int offset) {
+			this.base = base;
+			this.moves = moves;
+			this.bag = bag;
+			this.deadline = deadline;
+			this.offset = offset;
+		}
+
+		@Override
+		public double[] call() {
+			double[] stats = new double[moves.size() * 2];
+			// threads start on different moves so short budgets still cover them all
+			int k = offset % moves.size();
+			while (System.nanoTime() < deadline) {
+				Move m = moves.get(k);
+				stats[k * 2] += rollout(m);
+				stats[k * 2 + 1]++;
+				k = (k + 1) % moves.size();
+			}
+			return stats;
+		}
+
+		private double rollout(Move first) {
+			Board sim = base.copy();
+			sim.place(first.piece, first.x, first.y);
+			int lines = fullRows(sim, first.y, first.piece.getHeight());
+			sim.clearRows();
+			sim.commit();
+			Randp<Piece> sequence = bag.copy(random);
+			for (int d = 0; d < rolloutDepth; d++) {
+				Move m = greedy(sim, sequence.next(), lines);
+				if (m == null) {
+					return LOSS;
+				}
+				sim.place(m.piece, m.x, m.y);
+				lines += fullRows(sim, m.y, m.piece.getHeight());
+				sim.clearRows();
+				sim.commit();
+			}
+			return BoardEvaluator.evaluate(sim, lines);
+		}
+	}
+
+	/**
+	 * Finds the placement of piece with the best score, using place()/undo() on board,
+	 * which is left uncommitted
+	 * @param linesSoFar rows already cleared on the way to board, added to the score
+	 * @return the best placement, or null if the piece can't be placed
+	 */
+	static Move greedy(Board board, Piece piece, int linesSoFar) {
+		Move best = null;
+		Piece p = piece;
+		do {
+			for (int x = 0; x + p.getWidth() <= board.getWidth(); x++) {
+				int y = board.dropHeight(p, x);
+				if (y + p.getHeight() > board.getHeight()) {
+					continue;
+				}
+				board.place(p, x, y);
+				int lines = fullRows(board, y, p.getHeight());
+				board.clearRows();
+				double score = BoardEvaluator.evaluate(board, linesSoFar + lines);
+				board.undo();
+				if (best == null || score > best.score) {
+					best = new Move(p, x, y, score);
+				}
+			}
+			p = p.nextRotation();
+		} while (p != piece);
+		return best;
+	}
+
+	/**
+	 * @return every place piece can be dropped to on board, in any rotation
+	 */
+	static List<Move> placements(Board board, Piece piece) {
+		List<Move> result = new ArrayList<Move>();
+		Piece p = piece;
+		do {
+			for (int x = 0; x + p.getWidth() <= board.getWidth(); x++) {
+				int y = board.dropHeight(p, x);
+				if (y + p.getHeight() <= board.getHeight()) {
+					result.add(new Move(p, x, y, 0));
+				}
+			}
+			p = p.nextRotation();
+		} while (p != piece);
+		return result;
+	}
+
+	/**
+	 * @return the number of full rows among the h rows starting at y
+	 */
+	private static int fullRows(Board board, int y, int h) {
+		int count = 0;
+		for (int r = y; r < y + h; r++) {
+			if (board.getRowWidth(r) == board.getWidth()) { count++; }
+		}
+		return count;
+	}
+}
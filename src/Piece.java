@@ -6,19 +6,18 @@ import java.util.Arrays;
 
 public final class Piece {
 	/* 4 points that make up the piece's first rotation */
-	private Point[] body;
+	private final Point[] body;
 	/* an int array as long as the width of the piece that stores the lowest y value for each x value in the body */
-	private int[] skirt;
+	private final int[] skirt;
 	// overall width & height
-	private int width;
-	private int height;
-	// "next" rotation - used by nextRotation
+	private final int width;
+	private final int height;
+	/* bit (y * width + x) is set for each point in the body, or -1 if width * height > 64 */
+	private final long shape;
+	// "next" rotation - used by nextRotation, only set while the rotation cycle is built
 	private Piece next;
 	/* Color of the piece */
-	private Color color;
-	
-	/* singleton array of first rotations */
-	static private Piece[] pieces = null;
+	private final Color color;
 	
 	/**
 	 * Defines a new piece given the Points that make up its body
@@ -44,6 +43,16 @@ public final class Piece {
 		for (Point p : points) {
 			if (skirt[p.x - minX] > p.y) { skirt[p.x - minX] = p.y; }
 		}
+		
+		long mask = 0;
+		if (width * height <= 64) {
+			for (Point p : points) {
+				mask |= 1L << ((p.y - minY) * width + (p.x - minX));
+			}
+		} else {
+			mask = -1;
+		}
+		this.shape = mask;
 	}
 	
 	/**
@@ -96,6 +105,9 @@ public final class Piece {
 				|| other.getBody().length != this.getBody().length) {
 			return false;
 		}
+		if (this.shape != -1) { // small pieces compare their bitmasks without allocating
+			return this.shape == other.shape;
+		}
 		boolean hashTb[][] = new boolean[other.getWidth()][other.getHeight()]; // default initialized to false
 		for (int i = 0; i < other.getBody().length; i++) {
 			hashTb[other.getBody()[i].x][other.getBody()[i].y] = true;
@@ -126,21 +138,56 @@ public final class Piece {
 	 * Returns an array containing the first rotation of each of the 7 standard
 	 * tetris pieces. The next rotation can be obtained from each piece with 
 	 * nextRotation(), which gives the next piece in the circular rotation
-	 * linked list
+	 * linked list. The array is a copy, so callers may reorder it.
 	 */
 	public static Piece[] getPieces() {
-		if (pieces == null) {
-			pieces = new Piece[] {
-					setRotationCycle(new Piece(parsePoints("0 0 0 1 0 2 0 3"), Color.CYAN)), // 0, I tetronimo
-					setRotationCycle(new Piece(parsePoints("0 0 0 1 0 2 1 0"), Color.ORANGE)), // 1, L tetronimo
-					setRotationCycle(new Piece(parsePoints("0 0 1 0 1 1 1 2"), Color.BLUE)), // 2, J tetronimo
-					setRotationCycle(new Piece(parsePoints("0 0 1 0 1 1 2 1"), Color.GREEN)), // 3, S tetronimo
-					setRotationCycle(new Piece(parsePoints("0 1 1 1 1 0 2 0"), Color.RED)), // 4, Z tetronimo
-					setRotationCycle(new Piece(parsePoints("0 0 0 1 1 0 1 1"), Color.YELLOW)), // 5, O tetronimo
-					setRotationCycle(new Piece(parsePoints("0 0 1 0 1 1 2 0"), new Color(153, 0, 204))), // 6, T tetronimo
-					};
+		return PieceSet.standard().getPieces();
+	}
+	
+	/**
+	 * Creates a piece and its rotation cycle. The points are shifted so that the
+	 * lower left corner of the piece's bounding box is at (0, 0).
+	 * @param points the points that make up the first rotation
+	 * @param color the color of the piece
+	 * @return the first rotation
+	 */
+	static Piece create(Point[] points, Color color) {
+		return setRotationCycle(new Piece(normalize(points), color));
+	}
+	
+	/**
+	 * Creates a piece from a rotation table that has already been computed, without
+	 * recalculating or comparing any rotations.
+	 * @param rotations the points of each rotation, in nextRotation() order
+	 * @param color the color of the piece
+	 * @return the first rotation
+	 */
+	static Piece fromRotations(Point[][] rotations, Color color) {
+		Piece first = new Piece(rotations[0], color);
+		Piece prev = first;
+		for (int i = 1; i < rotations.length; i++) {
+			prev.next = new Piece(rotations[i], color);
+			prev = prev.next;
+		}
+		prev.next = first;
+		return first;
+	}
+	
+	/**
+	 * @return a copy of points translated so the smallest x and y are both 0
+	 */
+	static Point[] normalize(Point[] points) {
+		int minX = Integer.MAX_VALUE;
+		int minY = Integer.MAX_VALUE;
+		for (Point p : points) {
+			if (p.x < minX) { minX = p.x; }
+			if (p.y < minY) { minY = p.y; }
+		}
+		Point[] result = new Point[points.length];
+		for (int i = 0; i < points.length; i++) {
+			result[i] = new Point(points[i].x - minX, points[i].y - minY);
 		}
-		return pieces;
+		return result;
 	}
 	
 	/**
@@ -172,18 +219,4 @@ public final class Piece {
 		return new Piece(newPts, p.color);
 	}
 	
-	/**
-	 * Converts a string array with coordinates to a Point array
-	 * @param coords the coordinate string, formatted as "1 1 0 1 1 0" aka (1, 1), (0, 1), (1, 0)
-	 */
-	private static Point[] parsePoints(String coords) {
-		String[] split = coords.split(" ");
-		Point[] result = new Point[split.length/2];
-		for (int i = 0; i < result.length; i++) {
-			result[i] = new Point(Integer.parseInt(split[i*2]), Integer.parseInt(split[i*2+1]));
-		}
-		return result;
-	}
-	
-	
 }
@@ -0,0 +1,436 @@
+/* Copyright 2019, Serena Li, All rights reserved. */
+import java.awt.Color;
+import java.awt.Point;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An immutable set of pieces, each with its rotation cycle already built. Once
+ * constructed a PieceSet (and every Piece reachable from it) is safe to share
+ * between threads. Sets can be the 7 standard tetrominoes, loaded from a text
+ * file, generated for any polyomino size, or read back from the compact binary
+ * form written by write().
+ */
+public final class PieceSet {
+	/* first rotation of each piece */
+	private final Piece[] pieces;
+	/* maps every rotation of every piece to the index of its piece in pieces */
+	private final IdentityHashMap<Piece, Integer> indices;
+	/* the size passed to polyominoes(), or 0 if the set was not generated */
+	private final int generatedSize;
+
+	/* written at the start of the binary form */
+	private static final int MAGIC = 0x50435332; // "PCS2"
+	/* the most points a loaded piece can have, and one more than the largest
+	 * coordinate, so every point fits the 4 bit x and y of the binary form */
+	public static final int MAX_SIZE = 16;
+	/* the largest polyomino size polyominoes() will generate. The number of pieces
+	 * grows about 4x per size: size 10 has 9189 pieces and takes a few hundred ms */
+	public static final int MAX_GENERATED_SIZE = 10;
+
+	private PieceSet(Piece[] pieces) {
+		this(pieces, 0);
+	}
+
+	private PieceSet(Piece[] pieces, int generatedSize) {
+		this.pieces = pieces;
+		this.generatedSize = generatedSize;
+		this.indices = new IdentityHashMap<Piece, Integer>();
+		for (int i = 0; i < pieces.length; i++) {
+			Piece p = pieces[i];
+			do {
+				indices.put(p, i);
+				p = p.nextRotation();
+			} while (p != pieces[i]);
+		}
+	}
+
+	/* holder class, so the standard set is built once on first use and safely published */
+	private static final class Standard {
+		static final PieceSet SET = new PieceSet(new Piece[] {
+				Piece.create(points(0, 0, 0, 1, 0, 2, 0, 3), Color.CYAN), // 0, I tetronimo
+				Piece.create(points(0, 0, 0, 1, 0, 2, 1, 0), Color.ORANGE), // 1, L tetronimo
+				Piece.create(points(0, 0, 1, 0, 1, 1, 1, 2), Color.BLUE), // 2, J tetronimo
+				Piece.create(points(0, 0, 1, 0, 1, 1, 2, 1), Color.GREEN), // 3, S tetronimo
+				Piece.create(points(0, 1, 1, 1, 1, 0, 2, 0), Color.RED), // 4, Z tetronimo
+				Piece.create(points(0, 0, 0, 1, 1, 0, 1, 1), Color.YELLOW), // 5, O tetronimo
+				Piece.create(points(0, 0, 1, 0, 1, 1, 2, 0), new Color(153, 0, 204)), // 6, T tetronimo
+		});
+	}
+
+	/**
+	 * @return the 7 standard tetris pieces, in the order documented by Piece.getPieces()
+	 */
+	public static PieceSet standard() {
+		return Standard.SET;
+	}
+
+	/**
+	 * @return a copy of the array of first rotations, callers may reorder it
+	 */
+	public Piece[] getPieces() {
+		return pieces.clone();
+	}
+
+	/**
+	 * @return the number of pieces in the set
+	 */
+	public int size() {
+		return pieces.length;
+	}
+
+	/**
+	 * @return the first rotation of piece i
+	 */
+	public Piece get(int i) {
+		return pieces[i];
+	}
+
+	/**
+	 * @param piece any rotation of a piece in this set
+	 * @return the index of the piece, or -1 if it does not belong to this set
+	 */
+	public int indexOf(Piece piece) {
+		Integer i = indices.get(piece);
+		return i == null ? -1 : i;
+	}
+
+	/**
+	 * Generates every one-sided polyomino (distinct under rotation, but not
+	 * reflection) with the given number of cells. Size 4 gives the 7 tetrominoes,
+	 * size 5 gives the 18 pentominoes. Each piece starts in its flattest rotation
+	 * and is given an evenly spaced hue.
+	 */
+	public static PieceSet polyominoes(int size) {
+		if (size < 1 || size > MAX_GENERATED_SIZE) {
+			throw new IllegalArgumentException("polyomino size must be between 1 and " + MAX_GENERATED_SIZE + ": " + size);
+		}
+		Map<String, Point[]> shapes = new LinkedHashMap<String, Point[]>();
+		shapes.put(key(new Point[] { new Point(0, 0) }), new Point[] { new Point(0, 0) });
+		final int[][] neighbors = { {1, 0}, {-1, 0}, {0, 1}, {0, -1} };
+		for (int n = 2; n <= size; n++) {
+			Map<String, Point[]> grown = new LinkedHashMap<String, Point[]>();
+			for (Point[] shape : shapes.values()) {
+				for (Point cell : shape) {
+					for (int[] d : neighbors) {
+						Point added = new Point(cell.x + d[0], cell.y + d[1]);
+						if (contains(shape, added)) {
+							continue;
+						}
+						Point[] bigger = Arrays.copyOf(shape, n);
+						bigger[n - 1] = added;
+						Point[] canonical = canonicalRotation(Piece.normalize(bigger));
+						String k = key(canonical);
+						if (!grown.containsKey(k)) {
+							grown.put(k, canonical);
+						}
+					}
+				}
+			}
+			shapes = grown;
+		}
+		Piece[] result = new Piece[shapes.size()];
+		int i = 0;
+		for (Point[] shape : shapes.values()) {
+			result[i] = Piece.create(shape, Color.getHSBColor((float) i / result.length, 0.8f, 0.9f));
+			i++;
+		}
+		return new PieceSet(result, size);
+	}
+
+	/**
+	 * Loads pieces from a text file. Each line holds the points of one piece as
+	 * "x y x y ...", optionally followed by a color written as #RRGGBB. The points
+	 * must be distinct, connected, and fit in a MAX_SIZE square. Blank lines and
+	 * lines starting with // are ignored. Pieces that are rotations of an earlier
+	 * piece in the file are dropped.
+	 * @throws IOException if the file can't be read or a line is malformed
+	 */
+	public static PieceSet load(Path file) throws IOException {
+		Map<String, Piece> pieces = new LinkedHashMap<String, Piece>();
+		try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+			String line;
+			int lineNum = 0;
+			while ((line = in.readLine()) != null) {
+				lineNum++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("//")) {
+					continue;
+				}
+				Piece p = parsePiece(line, pieces.size());
+				if (p == null) {
+					throw new IOException(file + ":" + lineNum + ": malformed piece \"" + line + "\"");
+				}
+				String k = key(canonicalRotation(p.getBody()));
+				if (!pieces.containsKey(k)) {
+					pieces.put(k, p);
+				}
+			}
+		}
+		return new PieceSet(pieces.values().toArray(new Piece[pieces.size()]));
+	}
+
+	/**
+	 * Writes the set, including every rotation, in a compact binary form that
+	 * read() can turn back into a PieceSet without recomputing any rotations.
+	 */
+	public void write(DataOutput out) throws IOException {
+		out.writeInt(MAGIC);
+		out.writeByte(generatedSize);
+		out.writeShort(pieces.length);
+		for (Piece first : pieces) {
+			out.writeInt(first.getColor().getRGB());
+			int rotations = 0;
+			Piece p = first;
+			do {
+				rotations++;
+				p = p.nextRotation();
+			} while (p != first);
+			out.writeByte(rotations);
+			do {
+				out.writeByte(p.getBody().length);
+				for (Point pt : p.getBody()) {
+					if (pt.x < 0 || pt.x >= MAX_SIZE || pt.y < 0 || pt.y >= MAX_SIZE) {
+						throw new IOException("point (" + pt.x + ", " + pt.y + ") does not fit in 4 bits");
+					}
+					out.writeByte(pt.x << 4 | pt.y);
+				}
+				p = p.nextRotation();
+			} while (p != first);
+		}
+	}
+
+	/**
+	 * Reads a set written by write(). Every rotation is checked the same way as
+	 * the pieces in a text file.
+	 * @throws IOException if the data is not a serialized PieceSet
+	 */
+	public static PieceSet read(DataInput in) throws IOException {
+		if (in.readInt() != MAGIC) {
+			throw new IOException("not a serialized piece set");
+		}
+		int generatedSize = in.readUnsignedByte();
+		Piece[] pieces = new Piece[in.readUnsignedShort()];
+		for (int i = 0; i < pieces.length; i++) {
+			Color color = new Color(in.readInt(), true);
+			Point[][] rotations = new Point[in.readUnsignedByte()][];
+			if (rotations.length == 0) {
+				throw new IOException("piece " + i + " has no rotations");
+			}
+			for (int r = 0; r < rotations.length; r++) {
+				rotations[r] = new Point[in.readUnsignedByte()];
+				for (int k = 0; k < rotations[r].length; k++) {
+					int packed = in.readUnsignedByte();
+					rotations[r][k] = new Point(packed >> 4, packed & 0xF);
+				}
+				if (rotations[r].length != rotations[0].length || !isValidShape(rotations[r])
+						|| !Arrays.equals(Piece.normalize(rotations[r]), rotations[r])) {
+					throw new IOException("piece " + i + " has a malformed rotation");
+				}
+			}
+			pieces[i] = Piece.fromRotations(rotations, color);
+		}
+		return new PieceSet(pieces, generatedSize);
+	}
+
+	/**
+	 * Returns the polyominoes of the given size, reading them from cacheFile if it
+	 * holds a valid set and otherwise generating them and writing cacheFile. The
+	 * file is replaced atomically, so many JVMs can share one cache file.
+	 */
+	public static PieceSet cached(int size, Path cacheFile) throws IOException {
+		if (Files.isRegularFile(cacheFile)) {
+			try (InputStream in = new BufferedInputStream(Files.newInputStream(cacheFile))) {
+				PieceSet set = read(new DataInputStream(in));
+				if (set.generatedSize == size) {
+					return set;
+				}
+			} catch (IOException e) {
+				// fall through and regenerate a corrupt or stale cache
+			}
+		}
+		PieceSet set = polyominoes(size);
+		Path dir = cacheFile.toAbsolutePath().getParent();
+		Path tmp = Files.createTempFile(dir, cacheFile.getFileName().toString(), ".tmp");
+		try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp))) {
+			set.write(new DataOutputStream(out));
+		}
+		Files.move(tmp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return set;
+	}
+
+	/**
+	 * Parses one line of a piece file
+	 * @return the piece, or null if the line is malformed
+	 */
+	private static Piece parsePiece(String line, int index) {
+		List<Integer> coords = new ArrayList<Integer>();
+		Color color = null;
+		int i = 0;
+		while (i < line.length()) {
+			char c = line.charAt(i);
+			if (Character.isWhitespace(c)) {
+				i++;
+			} else if (c == '#' && color == null) {
+				int end = Math.min(i + 7, line.length());
+				try {
+					color = new Color(Integer.parseInt(line.substring(i + 1, end), 16));
+				} catch (NumberFormatException e) {
+					return null;
+				}
+				i = end;
+			} else if (c >= '0' && c <= '9' && color == null) {
+				int value = 0;
+				while (i < line.length() && line.charAt(i) >= '0' && line.charAt(i) <= '9') {
+					value = value * 10 + (line.charAt(i) - '0');
+					if (value >= 1000000) {
+						return null;
+					}
+					i++;
+				}
+				coords.add(value);
+			} else {
+				return null;
+			}
+		}
+		if (coords.isEmpty() || coords.size() % 2 != 0 || coords.size() / 2 > MAX_SIZE) {
+			return null;
+		}
+		Point[] pts = new Point[coords.size() / 2];
+		for (int k = 0; k < pts.length; k++) {
+			pts[k] = new Point(coords.get(k * 2), coords.get(k * 2 + 1));
+		}
+		pts = Piece.normalize(pts);
+		if (!isValidShape(pts)) {
+			return null;
+		}
+		if (color == null) {
+			color = Color.getHSBColor(index * 0.618034f, 0.8f, 0.9f);
+		}
+		return Piece.create(pts, color);
+	}
+
+	/**
+	 * Converts "x, y, x, y, ..." to a Point array
+	 */
+	private static Point[] points(int... coords) {
+		Point[] result = new Point[coords.length / 2];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = new Point(coords[i * 2], coords[i * 2 + 1]);
+		}
+		return result;
+	}
+
+	/**
+	 * Returns the rotation of a normalized shape that is used to spawn it: the one
+	 * with the smallest height, ties broken by the smallest key. Every rotation of
+	 * a shape gives the same result, so its key identifies the shape.
+	 */
+	private static Point[] canonicalRotation(Point[] shape) {
+		Point[] best = null;
+		int bestHeight = Integer.MAX_VALUE;
+		String bestKey = null;
+		Point[] cur = shape;
+		for (int r = 0; r < 4; r++) {
+			int width = 0;
+			int height = 0;
+			for (Point p : cur) {
+				width = Math.max(width, p.x + 1);
+				height = Math.max(height, p.y + 1);
+			}
+			String k = key(cur);
+			if (height < bestHeight || (height == bestHeight && k.compareTo(bestKey) < 0)) {
+				best = cur;
+				bestHeight = height;
+				bestKey = k;
+			}
+			// same rotation as Piece.calcNextPiece
+			Point[] next = new Point[cur.length];
+			for (int i = 0; i < cur.length; i++) {
+				next[i] = new Point(cur[i].y, (width - 1) - cur[i].x);
+			}
+			cur = next;
+		}
+		return best;
+	}
+
+	/**
+	 * @return a string that is equal for two normalized shapes with the same points
+	 */
+	private static String key(Point[] shape) {
+		int[] codes = new int[shape.length];
+		for (int i = 0; i < shape.length; i++) {
+			codes[i] = shape[i].x * (MAX_SIZE + 1) + shape[i].y;
+		}
+		Arrays.sort(codes);
+		return Arrays.toString(codes);
+	}
+
+	/**
+	 * @return true if shape, which must already be normalized, has between 1 and
+	 * MAX_SIZE distinct, connected points with coordinates below MAX_SIZE
+	 */
+	private static boolean isValidShape(Point[] shape) {
+		if (shape.length == 0 || shape.length > MAX_SIZE) {
+			return false;
+		}
+		for (int k = 0; k < shape.length; k++) {
+			if (shape[k].x >= MAX_SIZE || shape[k].y >= MAX_SIZE
+					|| contains(Arrays.copyOf(shape, k), shape[k])) {
+				return false;
+			}
+		}
+		return isConnected(shape);
+	}
+
+	/**
+	 * @return true if every point of shape can be reached from the first one
+	 * through points that share an edge
+	 */
+	private static boolean isConnected(Point[] shape) {
+		boolean[] reached = new boolean[shape.length];
+		int[] stack = new int[shape.length];
+		int top = 0;
+		int count = 1;
+		reached[0] = true;
+		stack[top++] = 0;
+		while (top > 0) {
+			Point p = shape[stack[--top]];
+			for (int k = 0; k < shape.length; k++) {
+				if (!reached[k] && Math.abs(shape[k].x - p.x) + Math.abs(shape[k].y - p.y) == 1) {
+					reached[k] = true;
+					stack[top++] = k;
+					count++;
+				}
+			}
+		}
+		return count == shape.length;
+	}
+
+	private static boolean contains(Point[] shape, Point p) {
+		for (Point q : shape) {
+			if (q.equals(p)) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -0,0 +1,425 @@
+/* Copyright 2019, Serena Li, All rights reserved. */
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches position evaluations so bots don't score the same positions again in
+ * every game. Lookups go first to a bounded in-memory LRU map, then to an
+ * append-only file of fixed-size records that persists between runs.
+ *
+ * The file is memory-mapped read-only and indexed when the cache is opened, so
+ * any number of processes can share it. A new file is written with its header
+ * under a temporary name and then linked into place, so no cache ever sees a
+ * file without a complete header. A cache opened for writing appends each new
+ * evaluation as a single write to the end of the file, and remembers what it
+ * wrote so its own records are found without rereading the file. Records other
+ * caches append are picked up every REFRESH_INTERVAL misses: the new records are
+ * read into a heap buffer after the mapped part, and the file is only mapped
+ * again once it has doubled in size.
+ *
+ * File layout (big endian): int MAGIC, int width, int height, then records of
+ * (key as written by PositionKey.write(), double value).
+ */
+public class PositionCache implements Closeable {
+	private static final int MAGIC = 0x504F5331; // "POS1"
+	private static final int HEADER_SIZE = 12;
+	/* the file is checked for records from other caches once every this many misses */
+	public static final int REFRESH_INTERVAL = 64;
+
+	private final LinkedHashMap<PositionKey, Double> memory;
+	private final int width;
+	private final int height;
+	private final int wordCount;
+	private final int recordSize;
+
+	// disk tier, all null/0 for a memory-only cache
+	/* read and mapped by every cache */
+	private final FileChannel channel;
+	/* opened in append mode to write new records, null if the cache is read-only */
+	private final FileChannel appender;
+	private final boolean writable;
+	/* the file from 0 to mappedSize */
+	private MappedByteBuffer mapped;
+	private long mappedSize;
+	/* the records from mappedSize to indexedSize, read since the last mapping */
+	private ByteBuffer tail;
+	private long indexedSize;
+	/* records this cache appended that haven't been indexed yet */
+	private final HashMap<PositionKey, Double> appended = new HashMap<PositionKey, Double>();
+	private int missesSinceRefresh;
+	/* open addressing table of record number + 1, 0 for an empty slot */
+	private int[] slots;
+	/* hash of the key in each slot */
+	private int[] slotHashes;
+	private int records;
+	/* reused to write one record */
+	private final ByteBuffer recordBuf;
+
+	private final AtomicLong memoryHits = new AtomicLong();
+	private final AtomicLong diskHits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/**
+	 * Creates a cache that only keeps evaluations in memory
+	 * @param capacity the most entries to keep in memory
+	 */
+	public PositionCache(int capacity, int width, int height) {
+		this.memory = lruMap(capacity);
+		this.width = width;
+		this.height = height;
+		this.wordCount = PositionKey.wordCount(width, height);
+		this.recordSize = PositionKey.byteSize(wordCount) + 8;
+		this.channel = null;
+		this.appender = null;
+		this.writable = false;
+		this.recordBuf = null;
+	}
+
+	/**
+	 * Creates a cache backed by a file
+	 * @param capacity the most entries to keep in memory
+	 * @param file the cache file, created if it doesn't exist and writable is true
+	 * @param writable true to append new evaluations to the file, false to only read it
+	 * @throws IOException if the file can't be opened or was written for a different board size
+	 */
+	public PositionCache(int capacity, int width, int height, Path file, boolean writable) throws IOException {
+		this.memory = lruMap(capacity);
+		this.width = width;
+		this.height = height;
+		this.wordCount = PositionKey.wordCount(width, height);
+		this.recordSize = PositionKey.byteSize(wordCount) + 8;
+		this.writable = writable;
+		this.recordBuf = ByteBuffer.allocate(recordSize);
+		if (writable) {
+			createFile(file);
+			this.appender = FileChannel.open(file, StandardOpenOption.APPEND);
+		} else {
+			this.appender = null;
+		}
+		try {
+			this.channel = FileChannel.open(file, StandardOpenOption.READ);
+		} catch (IOException e) {
+			if (appender != null) { appender.close(); }
+			throw e;
+		}
+		try {
+			checkHeader();
+		} catch (IOException e) {
+			close();
+			throw e;
+		}
+		this.slots = new int[1024];
+		this.slotHashes = new int[1024];
+		this.tail = ByteBuffer.allocate(recordSize * 64);
+		this.mappedSize = HEADER_SIZE;
+		this.indexedSize = HEADER_SIZE;
+		refresh();
+	}
+
+	/**
+	 * @return the cached value for key, or Double.NaN if it is not cached
+	 */
+	public synchronized double get(PositionKey key) {
+		checkSize(key);
+		Double v = memory.get(key);
+		if (v != null) {
+			memoryHits.incrementAndGet();
+			return v;
+		}
+		if (channel != null) {
+			try {
+				long offset = find(key);
+				if (offset < 0) {
+					v = appended.get(key);
+					if (v != null) {
+						memory.put(key, v);
+						diskHits.incrementAndGet();
+						return v;
+					}
+					if (++missesSinceRefresh >= REFRESH_INTERVAL) {
+						missesSinceRefresh = 0;
+						refresh();
+						offset = find(key);
+					}
+				}
+				if (offset >= 0) {
+					double value = valueAt(offset);
+					memory.put(key, value);
+					diskHits.incrementAndGet();
+					return value;
+				}
+			} catch (IOException e) {
+				// treat an unreadable file as a miss
+			}
+		}
+		misses.incrementAndGet();
+		return Double.NaN;
+	}
+
+	/**
+	 * Caches a value, appending it to the file if the cache is writable and the
+	 * file doesn't already hold the key
+	 * @throws IOException if the record could not be appended
+	 */
+	public synchronized void put(PositionKey key, double value) throws IOException {
+		checkSize(key);
+		memory.put(key, value);
+		if (writable && find(key) < 0 && !appended.containsKey(key)) {
+			recordBuf.clear();
+			key.write(recordBuf);
+			recordBuf.putDouble(value);
+			recordBuf.flip();
+			// a single write in append mode, so records from several writers never interleave
+			appender.write(recordBuf);
+			appended.put(key, value);
+		}
+	}
+
+	public long getMemoryHits() {
+		return memoryHits.get();
+	}
+
+	public long getDiskHits() {
+		return diskHits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	/**
+	 * @return the number of records in the file that have been indexed
+	 */
+	public synchronized int getDiskSize() {
+		return records;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (channel != null) {
+			channel.close();
+		}
+		if (appender != null) {
+			appender.close();
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "memory hits=" + getMemoryHits() + " disk hits=" + getDiskHits() + " misses=" + getMisses();
+	}
+
+	private void checkSize(PositionKey key) {
+		if (key.getWidth() != width || key.getHeight() != height) {
+			throw new IllegalArgumentException("key is for a " + key.getWidth() + "x" + key.getHeight()
+					+ " board, not " + width + "x" + height);
+		}
+	}
+
+	private static LinkedHashMap<PositionKey, Double> lruMap(final int capacity) {
+		return new LinkedHashMap<PositionKey, Double>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<PositionKey, Double> eldest) {
+				return size() > capacity;
+			}
+		};
+	}
+
+	/**
+	 * Creates the file with its header if it doesn't exist. The header is written
+	 * to a temporary file that is then linked to the real name, which fails if
+	 * another process created the file first, so the file never exists without a
+	 * complete header.
+	 */
+	private void createFile(Path file) throws IOException {
+		if (Files.exists(file)) {
+			return;
+		}
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(MAGIC).putInt(width).putInt(height);
+		Path dir = file.toAbsolutePath().getParent();
+		Path tmp = Files.createTempFile(dir, file.getFileName().toString(), ".tmp");
+		try {
+			Files.write(tmp, header.array());
+			try {
+				Files.createLink(file, tmp);
+			} catch (UnsupportedOperationException e) {
+				// no hard links on this file system, moving without replacing is the next best thing
+				Files.move(tmp, file);
+			}
+		} catch (FileAlreadyExistsException e) {
+			// another process created it first
+		} finally {
+			Files.deleteIfExists(tmp);
+		}
+	}
+
+	/**
+	 * Checks the header of the file
+	 */
+	private void checkHeader() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		while (header.hasRemaining() && channel.read(header, header.position()) > 0) {
+			// keep reading until the header is complete or the file ends
+		}
+		if (header.hasRemaining()) {
+			throw new IOException("position cache file is too short");
+		}
+		header.flip();
+		if (header.getInt() != MAGIC) {
+			throw new IOException("not a position cache file");
+		}
+		int w = header.getInt();
+		int h = header.getInt();
+		if (w != width || h != height) {
+			throw new IOException("position cache file is for a " + w + "x" + h + " board, not " + width + "x" + height);
+		}
+	}
+
+	/**
+	 * Indexes any records appended since the last refresh. The new records are
+	 * read into the tail buffer, unless the file has grown to more than twice the
+	 * mapped size, in which case the whole file is mapped again. A record that is
+	 * only partly written is left for a later refresh.
+	 */
+	private void refresh() throws IOException {
+		long size = channel.size();
+		long usable = HEADER_SIZE + (size - HEADER_SIZE) / recordSize * recordSize;
+		if (usable > Integer.MAX_VALUE) {
+			usable = HEADER_SIZE + (Integer.MAX_VALUE - HEADER_SIZE) / recordSize * recordSize;
+		}
+		if (mapped != null && usable <= indexedSize) {
+			return;
+		}
+		long start = indexedSize;
+		if (mapped == null || usable > mappedSize * 2) {
+			mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, usable);
+			mappedSize = usable;
+			tail.clear().limit(0);
+		} else {
+			readTail(usable);
+		}
+		indexedSize = usable;
+		for (long offset = start; offset < usable; offset += recordSize) {
+			index(offset);
+		}
+		if (!appended.isEmpty()) {
+			Iterator<PositionKey> it = appended.keySet().iterator();
+			while (it.hasNext()) {
+				if (find(it.next()) >= 0) {
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the file from indexedSize to usable onto the end of the tail buffer
+	 */
+	private void readTail(long usable) throws IOException {
+		int needed = (int) (usable - mappedSize);
+		if (needed > tail.capacity()) {
+			ByteBuffer bigger = ByteBuffer.allocate(Math.max(needed, tail.capacity() * 2));
+			tail.position(0);
+			bigger.put(tail);
+			tail = bigger;
+		}
+		tail.limit(needed).position((int) (indexedSize - mappedSize));
+		while (tail.hasRemaining()) {
+			if (channel.read(tail, mappedSize + tail.position()) < 0) {
+				throw new IOException("position cache file was truncated");
+			}
+		}
+	}
+
+	/**
+	 * Adds the record at offset to the index
+	 */
+	private void index(long offset) {
+		if ((records + 1) * 2 > slots.length) {
+			grow();
+		}
+		int hash = offset < mappedSize
+				? PositionKey.hashAt(mapped, (int) offset, wordCount)
+				: PositionKey.hashAt(tail, (int) (offset - mappedSize), wordCount);
+		int mask = slots.length - 1;
+		int i = mix(hash) & mask;
+		while (slots[i] != 0) {
+			i = (i + 1) & mask;
+		}
+		records++;
+		slots[i] = records;
+		slotHashes[i] = hash;
+	}
+
+	/**
+	 * @return the offset in the file of the record for key, or -1 if it hasn't been indexed
+	 */
+	private long find(PositionKey key) {
+		if (mapped == null) {
+			return -1;
+		}
+		int hash = key.hashCode();
+		int mask = slots.length - 1;
+		for (int i = mix(hash) & mask; slots[i] != 0; i = (i + 1) & mask) {
+			if (slotHashes[i] == hash) {
+				long offset = HEADER_SIZE + (long) (slots[i] - 1) * recordSize;
+				boolean match = offset < mappedSize
+						? key.matches(mapped, (int) offset)
+						: key.matches(tail, (int) (offset - mappedSize));
+				if (match) {
+					return offset;
+				}
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the value of the record at offset
+	 */
+	private double valueAt(long offset) {
+		long valueOffset = offset + recordSize - 8;
+		return offset < mappedSize
+				? mapped.getDouble((int) valueOffset)
+				: tail.getDouble((int) (valueOffset - mappedSize));
+	}
+
+	private void grow() {
+		int[] oldSlots = slots;
+		int[] oldHashes = slotHashes;
+		slots = new int[oldSlots.length * 2];
+		slotHashes = new int[oldSlots.length * 2];
+		int mask = slots.length - 1;
+		for (int k = 0; k < oldSlots.length; k++) {
+			if (oldSlots[k] != 0) {
+				int i = mix(oldHashes[k]) & mask;
+				while (slots[i] != 0) {
+					i = (i + 1) & mask;
+				}
+				slots[i] = oldSlots[k];
+				slotHashes[i] = oldHashes[k];
+			}
+		}
+	}
+
+	/* spreads the bits of a hash code so nearby codes land in different slots */
+	private static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+}
@@ -0,0 +1,130 @@
+/* Copyright 2019, Serena Li, All rights reserved. */
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Identifies a position for PositionCache: which blocks of the board are
+ * filled, one bit per block, plus the current and preview pieces. Colors are
+ * left out because they don't affect how good a position is.
+ */
+public final class PositionKey {
+	/* size of the board the key was made from */
+	private final int width;
+	private final int height;
+	/* bit (y * width + x) is set if block (x, y) is filled */
+	private final long[] words;
+	/* index of the current and preview pieces in their PieceSet, -1 for none */
+	private final int current;
+	private final int preview;
+	private final int hash;
+
+	PositionKey(int width, int height, long[] words, int current, int preview) {
+		this.width = width;
+		this.height = height;
+		this.words = words;
+		this.current = current;
+		this.preview = preview;
+		this.hash = (Arrays.hashCode(words) * 31 + current) * 31 + preview;
+	}
+
+	/**
+	 * @param board a committed board
+	 * @param pieces the set the pieces come from
+	 * @param current the piece about to be placed, or null
+	 * @param preview the piece after it, or null if it is not known
+	 */
+	public static PositionKey of(Board board, PieceSet pieces, Piece current, Piece preview) {
+		int width = board.getWidth();
+		long[] words = new long[wordCount(width, board.getHeight())];
+		int maxHeight = board.getMaxHeight();
+		for (int y = 0; y < maxHeight; y++) {
+			if (board.getRowWidth(y) == 0) {
+				continue;
+			}
+			for (int x = 0; x < width; x++) {
+				if (board.at(x, y) != null) {
+					int bit = y * width + x;
+					words[bit >> 6] |= 1L << bit;
+				}
+			}
+		}
+		return new PositionKey(width, board.getHeight(), words,
+				current == null ? -1 : pieces.indexOf(current),
+				preview == null ? -1 : pieces.indexOf(preview));
+	}
+
+	/**
+	 * @return the number of longs needed to hold one bit per block of a board
+	 */
+	static int wordCount(int width, int height) {
+		return (width * height + 63) / 64;
+	}
+
+	/**
+	 * @return the number of bytes write() uses for a key with the given number of words
+	 */
+	static int byteSize(int wordCount) {
+		return wordCount * 8 + 4;
+	}
+
+	/**
+	 * Writes the key at the buffer's position
+	 */
+	void write(ByteBuffer out) {
+		for (long w : words) {
+			out.putLong(w);
+		}
+		out.putShort((short) current);
+		out.putShort((short) preview);
+	}
+
+	/**
+	 * @return true if the key written at offset in buf equals this key
+	 */
+	boolean matches(ByteBuffer buf, int offset) {
+		for (int i = 0; i < words.length; i++) {
+			if (buf.getLong(offset + i * 8) != words[i]) {
+				return false;
+			}
+		}
+		int end = offset + words.length * 8;
+		return buf.getShort(end) == current && buf.getShort(end + 2) == preview;
+	}
+
+	/**
+	 * @return the hash code of the key written at offset in buf, equal to
+	 * hashCode() of the key that wrote it
+	 */
+	static int hashAt(ByteBuffer buf, int offset, int wordCount) {
+		int h = 1;
+		for (int i = 0; i < wordCount; i++) {
+			long w = buf.getLong(offset + i * 8);
+			h = 31 * h + (int) (w ^ (w >>> 32));
+		}
+		int end = offset + wordCount * 8;
+		return (h * 31 + buf.getShort(end)) * 31 + buf.getShort(end + 2);
+	}
+
+	int getWidth() {
+		return width;
+	}
+
+	int getHeight() {
+		return height;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof PositionKey)) {
+			return false;
+		}
+		PositionKey other = (PositionKey) o;
+		return hash == other.hash && current == other.current && preview == other.preview
+				&& width == other.width && height == other.height && Arrays.equals(words, other.words);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+}
@@ -1,4 +1,7 @@
 /* Copyright 2019, Serena Li, All rights reserved. */
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Random;
 
 public class Randp<T> {
@@ -6,11 +9,35 @@ public class Randp<T> {
 	private int numsLeft;
 	private Random r;
 	public Randp(T[] arr) {
-		r = new Random();
+		this(arr, new Random());
+	}
+	
+	public Randp(T[] arr, Random r) {
+		this.r = r;
 		this.arr = arr;
 		numsLeft = arr.length;
 	}
 	
+	/**
+	 * Returns a generator with the same bag state as this one, so it will return
+	 * the same items in some order before starting a new bag
+	 * @param r the random generator the copy should use
+	 */
+	public Randp<T> copy(Random r) {
+		Randp<T> result = new Randp<T>(arr.clone(), r);
+		result.numsLeft = numsLeft;
+		return result;
+	}
+	
+	/**
+	 * @return the items that the next call to next() can return, each equally
+	 * likely. This is the rest of the current bag, or every item if it is empty.
+	 */
+	public List<T> remaining() {
+		int n = numsLeft <= 0 ? arr.length : numsLeft;
+		return new ArrayList<T>(Arrays.asList(arr).subList(0, n));
+	}
+	
 	public T next() {
 		if (numsLeft <= 0) {
 			numsLeft = arr.length;
@@ -0,0 +1,32 @@
+/* Copyright 2019, Serena Li, All rights reserved. */
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes frames back to back as raw 8-bit RGB to a stream, for example the
+ * standard input of "ffmpeg -f rawvideo -pix_fmt rgb24 -s WxH -i -".
+ */
+public class RawFrameSink implements FrameSink {
+	private final OutputStream out;
+	/* reused for every frame */
+	private byte[] buffer = new byte[0];
+
+	public RawFrameSink(OutputStream out) {
+		this.out = out;
+	}
+
+	@Override
+	public void frame(int index, FrameRenderer renderer) throws IOException {
+		int size = renderer.getImageWidth() * renderer.getImageHeight() * 3;
+		if (buffer.length != size) {
+			buffer = new byte[size];
+		}
+		renderer.toRGB(buffer);
+		out.write(buffer);
+	}
+
+	@Override
+	public void close() throws IOException {
+		out.close();
+	}
+}